@@ -0,0 +1,64 @@
+package io.github.terra121;
+
+import java.util.Arrays;
+
+import net.minecraft.world.biome.Biome;
+
+//biome classification rules compiled into a table of every soil type and temperature/precipitation bin
+//the bins come from the thresholds the rules compare against, so the table gives exactly what the rules would
+public class BiomeTable {
+
+	public interface Rules {
+		Biome classify(byte soil, double temp, double precip);
+	}
+
+	private final double[] tempBreaks;
+	private final double[] precipBreaks;
+	private final Biome[] table;
+
+	//breaks are the values the rules compare against, for rules that check temp < c add c, for temp > c add Math.nextUp(c)
+	//so a bin is every value at least one break and below the next one
+	public BiomeTable(Rules rules, double[] tempBreaks, double[] precipBreaks) {
+		this.tempBreaks = sorted(tempBreaks);
+		this.precipBreaks = sorted(precipBreaks);
+
+		int temps = this.tempBreaks.length + 2;
+		int precips = this.precipBreaks.length + 2;
+		table = new Biome[256*temps*precips];
+
+		for(int s=0; s<256; s++)
+			for(int t=0; t<temps; t++)
+				for(int p=0; p<precips; p++)
+					table[(s*temps + t)*precips + p] = rules.classify((byte)s, sample(this.tempBreaks, t), sample(this.precipBreaks, p));
+	}
+
+	public Biome get(byte soil, double temp, double precip) {
+		return table[((soil&0xff)*(tempBreaks.length + 2) + bin(tempBreaks, temp))*(precipBreaks.length + 2) + bin(precipBreaks, precip)];
+	}
+
+	//number of breaks at or below v, nan (which fails every comparison) gets a bin of its own after the rest
+	private static int bin(double[] breaks, double v) {
+		if(v != v)
+			return breaks.length + 1;
+
+		int b = 0;
+		while(b < breaks.length && breaks[b] <= v)
+			b++;
+		return b;
+	}
+
+	//a value that falls in bin b
+	private static double sample(double[] breaks, int b) {
+		if(b == breaks.length + 1)
+			return Double.NaN;
+		if(b == 0)
+			return breaks.length == 0 ? 0 : breaks[0] - 1;
+		return breaks[b-1];
+	}
+
+	private static double[] sorted(double[] breaks) {
+		double[] s = breaks.clone();
+		Arrays.sort(s);
+		return s;
+	}
+}
@@ -10,6 +10,7 @@ import javax.annotation.Nullable;
 
 import io.github.terra121.dataset.Climate;
 import io.github.terra121.dataset.Soil;
+import io.github.terra121.dataset.StripedCache;
 import io.github.terra121.projection.GeographicProjection;
 import net.minecraft.init.Biomes;
 import net.minecraft.util.math.BlockPos;
@@ -29,6 +30,20 @@ public class EarthBiomeProvider extends BiomeProvider {
     public Climate climate;
     public GeographicProjection projection;
 
+    //temperature and precipitation scratch space for classify
+    private ThreadLocal<double[]> env = ThreadLocal.withInitial(() -> new double[2]);
+
+    //rules() compiled into a table, swapped out whole by setRules
+    private volatile BiomeTable table = new BiomeTable(EarthBiomeProvider::rules, TEMP_BREAKS, PRECIP_BREAKS);
+
+    //biomes of recently used chunks, x*16 + z like the rest of terra
+    private volatile StripedCache<Long, Biome[]> chunks = new StripedCache<Long, Biome[]>(16, TerraConfig.columnCacheSize, b -> 1);
+    private volatile ThreadLocal<ChunkScratch> scratch = ThreadLocal.withInitial(ChunkScratch::new);
+
+    //interpolated coordinates further than this (in degrees, about a meter) from the real ones mean the chunk is
+    //on a projection seam or too scaled down to interpolate, so it gets projected block by block
+    private static final double INTERPOLATION_ERROR = 0.00001;
+
     /** The biome generator object. */
     private final Biome defaultBiome;
 
@@ -44,11 +59,9 @@ public class EarthBiomeProvider extends BiomeProvider {
         //load soil and climate data from assets
         this.defaultBiome = biomeIn;
         try {
-            InputStream is = getClass().getClassLoader().getResourceAsStream("assets/terra121/data/suborder.img");
-            soil = new Soil(is);
-            is.close();
+            soil = new Soil();
 
-            is = getClass().getClassLoader().getResourceAsStream("assets/terra121/data/climate.dat");
+            InputStream is = getClass().getClassLoader().getResourceAsStream("assets/terra121/data/climate.dat");
             climate = new Climate(is);
             is.close();
         } catch(IOException ioe) {
@@ -61,14 +74,118 @@ public class EarthBiomeProvider extends BiomeProvider {
      */
     public Biome getBiome(BlockPos pos)
     {
-    	//null island
-    	if(-80 < pos.getX() && pos.getX() < 80 && -80 < pos.getZ() && pos.getZ() < 80) {
-    		if(-16 < pos.getX() && pos.getX() < 16 && -16 < pos.getZ() && pos.getZ() < 16)
+        return chunk(pos.getX() >> 4, pos.getZ() >> 4)[(pos.getX()&15)*16 + (pos.getZ()&15)];
+    }
+
+    //null island
+    private static Biome nullIsland(int x, int z) {
+    	if(-80 < x && x < 80 && -80 < z && z < 80) {
+    		if(-16 < x && x < 16 && -16 < z && z < 16)
     			return Biomes.FOREST;
     		return Biomes.MUSHROOM_ISLAND;
     	}
+    	return null;
+    }
+
+    //all of a chunk's biomes, x*16 + z
+    //a copy, the cached array is shared by every thread asking for this chunk
+    public Biome[] getChunk(int chunkX, int chunkZ) {
+        return chunk(chunkX, chunkZ).clone();
+    }
+
+    //the cached array itself, only ever read from it
+    private Biome[] chunk(int chunkX, int chunkZ) {
+        long key = ((long)chunkX<<32) | (chunkZ&0xffffffffL);
+
+        //queries come in bursts for the same chunk
+        ChunkScratch local = scratch.get();
+        if(local.biomes != null && local.key == key)
+            return local.biomes;
+
+        Biome[] biomes = chunks.get(key);
+        if(biomes == null) {
+            biomes = classifyChunk(chunkX, chunkZ, local);
+            Biome[] old = chunks.putIfAbsent(key, biomes);
+            if(old != null)
+                biomes = old;
+        }
+
+        local.key = key;
+        local.biomes = biomes;
+        return biomes;
+    }
+
+    //projects the corners of the chunk and interpolates between them instead of projecting every block
+    //then classifies the whole grid at once, climate cells are shared between all the blocks in them
+    private Biome[] classifyChunk(int chunkX, int chunkZ, ChunkScratch local) {
+        int x0 = chunkX*16, z0 = chunkZ*16;
+        double[] geo = local.geo;
+
+        double[] ll = projection.toGeo(x0, z0);
+        double[] lr = projection.toGeo(x0 + 15, z0);
+        double[] ul = projection.toGeo(x0, z0 + 15);
+        double[] ur = projection.toGeo(x0 + 15, z0 + 15);
+        double[] mid = projection.toGeo(x0 + 8, z0 + 7);
+
+        for(int x=0; x<16; x++) {
+            for(int z=0; z<16; z++) {
+                double u = x/15.0, v = z/15.0;
+                int i = x*16 + z;
+                geo[2*i] = (1-v)*(ll[0]*(1-u) + lr[0]*u) + (ul[0]*(1-u) + ur[0]*u)*v;
+                geo[2*i+1] = (1-v)*(ll[1]*(1-u) + lr[1]*u) + (ul[1]*(1-u) + ur[1]*u)*v;
+            }
+        }
+
+        int m = 8*16 + 7;
+        if(!(Math.abs(geo[2*m] - mid[0]) < INTERPOLATION_ERROR && Math.abs(geo[2*m+1] - mid[1]) < INTERPOLATION_ERROR)) {
+            double[] proj = new double[2];
+            for(int x=0; x<16; x++) {
+                for(int z=0; z<16; z++) {
+                    int i = x*16 + z;
+                    projection.toGeo(x0 + x, z0 + z, proj);
+                    geo[2*i] = proj[0];
+                    geo[2*i+1] = proj[1];
+                }
+            }
+        }
+
+        Biome[] biomes = new Biome[16*16];
+        classify(geo, biomes, 16*16, local);
+
+        for(int x=0; x<16; x++)
+            for(int z=0; z<16; z++) {
+                Biome island = nullIsland(x0 + x, z0 + z);
+                if(island != null)
+                    biomes[x*16 + z] = island;
+            }
+
+        return biomes;
+    }
+
+    //classifies count lon,lat pairs from geo into out
+    public void classify(double[] geo, Biome[] out, int count) {
+        classify(geo, out, count, new ChunkScratch());
+    }
 
-        return classify(projection.toGeo(pos.getX(), pos.getZ()));
+    private void classify(double[] geo, Biome[] out, int count, ChunkScratch local) {
+        double[] temps = local.temps = grow(local.temps, count);
+        double[] precips = local.precips = grow(local.precips, count);
+        climate.getGrid(geo, temps, precips, count);
+
+        for(int i=0; i<count; i++)
+            out[i] = classify(soil.getPoint(geo[2*i], geo[2*i+1]), temps[i], precips[i]);
+    }
+
+    private static double[] grow(double[] arr, int size) {
+        return arr!=null && arr.length>=size?arr:new double[size];
+    }
+
+    private static class ChunkScratch {
+        long key;
+        Biome[] biomes;
+        double[] geo = new double[16*16*2];
+        double[] temps;
+        double[] precips;
     }
 
     /** Get explicit data on the environment (soil, tempature, precipitation) */
@@ -80,13 +197,32 @@ public class EarthBiomeProvider extends BiomeProvider {
     }
 
     public Biome classify(double[] projected) {
+        double[] clim = env.get();
+        climate.getPoint(projected[0], projected[1], clim);
+        return classify(soil.getPoint(projected[0], projected[1]), clim[0], clim[1]);
+    }
+
+    //biome for a soil type, temperature and precipitation, one read from the compiled rules
+    public Biome classify(byte stype, double temp, double precip) {
+        return table.get(stype, temp, precip);
+    }
+
+    //swaps the classification rules, see BiomeTable for what the breaks are
+    public void setRules(BiomeTable.Rules rules, double[] tempBreaks, double[] precipBreaks) {
+        table = new BiomeTable(rules, tempBreaks, precipBreaks);
+        chunks = new StripedCache<Long, Biome[]>(16, TerraConfig.columnCacheSize, b -> 1);
+        scratch = ThreadLocal.withInitial(ChunkScratch::new);
+    }
 
-        Climate.ClimateData clim = climate.getPoint(projected[0], projected[1]);
-        byte stype = soil.getPoint(projected[0], projected[1]);
+    //every temperature and precipitation rules() compares against, keep these in sync with it
+    public static final double[] TEMP_BREAKS = {-5, 0, 2, 5, 10, 15, Math.nextUp(15.0), Math.nextUp(20.0)};
+    public static final double[] PRECIP_BREAKS = {5};
 
+    //the default soil and climate rules (mostly soil)
+    public static Biome rules(byte stype, double temp, double precip) {
         switch(stype) {
             case 0: //Ocean
-                if(clim.temp < -5)
+                if(temp < -5)
                     return Biomes.FROZEN_OCEAN;
                 return Biomes.DEEP_OCEAN;
             case 1: //Shifting Sand
@@ -104,19 +240,19 @@ public class EarthBiomeProvider extends BiomeProvider {
                 return Biomes.PLAINS;
 
             case 15:
-                if(clim.temp<5)
+                if(temp<5)
                     return Biomes.COLD_TAIGA;
-                else if(clim.temp>15)
+                else if(temp>15)
                     return Biomes.SWAMPLAND;
                 return Biomes.FOREST;
 
             case 16: case 17: case 18: case 19:
-                if(clim.temp<15) {
-                    if (clim.temp < 0)
+                if(temp<15) {
+                    if (temp < 0)
                         return Biomes.COLD_TAIGA;
                     return Biomes.SWAMPLAND;
                 }
-                if(clim.temp > 20)
+                if(temp > 20)
                     return Biomes.SWAMPLAND;
                 return Biomes.FOREST;
 
@@ -132,11 +268,11 @@ public class EarthBiomeProvider extends BiomeProvider {
             case 51: //salt flats always desert
                 return Biomes.DESERT;
             case 52: case 53: case 55: case 99: //hot and dry
-                if(clim.temp<2)
+                if(temp<2)
                     return Biomes.COLD_TAIGA;
-                if(clim.temp<5)
+                if(temp<5)
                     return Biomes.TAIGA; //TODO: Tundra in (1.15)
-                if(clim.precip<5)
+                if(precip<5)
                     return Biomes.DESERT;
                 return Biomes.MESA; //TODO: this soil can also be desert i.e. saudi Arabia (base on percip?)
 
@@ -144,7 +280,7 @@ public class EarthBiomeProvider extends BiomeProvider {
                 return Biomes.SAVANNA;
 
             case 60: case 61: case 62: case 63: case 64:
-                if (clim.temp < 10)
+                if (temp < 10)
                     return Biomes.TAIGA;
                 return Biomes.FOREST;
 
@@ -197,7 +333,8 @@ public class EarthBiomeProvider extends BiomeProvider {
 
         for(int r=0; r<width; r++) {
             for(int c=0; c<depth; c++) {
-                oldBiomeList[r*depth + c] = getBiome(new BlockPos(x+r,0,z+c));
+                int bx = x+r, bz = z+c;
+                oldBiomeList[r*depth + c] = chunk(bx >> 4, bz >> 4)[(bx&15)*16 + (bz&15)];
             }
         }
         return oldBiomeList;
@@ -1,16 +1,27 @@
 package io.github.terra121;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
 
 import io.github.opencubicchunks.cubicchunks.api.util.Coords;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
+import io.github.opencubicchunks.cubicchunks.api.world.CubeDataEvent;
+import io.github.opencubicchunks.cubicchunks.api.world.CubeEvent;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubeProvider;
+import io.github.opencubicchunks.cubicchunks.api.world.ICubicWorld;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.CubePrimer;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.CubeGeneratorsRegistry;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.CubePopulatorEvent;
@@ -23,8 +34,10 @@ import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockRe
 import io.github.opencubicchunks.cubicchunks.cubicgen.common.biome.IBiomeBlockReplacerProvider;
 import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.CustomGeneratorSettings;
 import io.github.opencubicchunks.cubicchunks.cubicgen.customcubic.structure.CubicCaveGenerator;
-import io.github.terra121.dataset.Heights;
+import io.github.terra121.dataset.HeightPyramid;
 import io.github.terra121.dataset.OpenStreetMaps;
+import io.github.terra121.dataset.StripedCache;
+import io.github.terra121.dataset.Trees;
 import io.github.terra121.populator.CliffReplacer;
 import io.github.terra121.populator.EarthTreePopulator;
 import io.github.terra121.populator.RoadGenerator;
@@ -38,14 +51,18 @@ import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.BiomeProvider;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
 import net.minecraftforge.fml.common.registry.ForgeRegistries;
 //import io.github.opencubicchunks.cubicchunks.api.worldgen.structure.event.InitCubicStructureGeneratorEvent;
 
 public class EarthTerrainProcessor extends BasicCubeGenerator {
 
-    public Heights heights;
-    public Heights depths;
+    public HeightPyramid heights;
+    public HeightPyramid depths;
     public OpenStreetMaps osm;
+    public Trees trees;
     public HashMap<Biome, List<IBiomeBlockReplacer>> biomeBlockReplacers;
     public BiomeProvider biomes;
     public GeographicProjection projection;
@@ -56,9 +73,41 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
     private Map<Biome, ICubicPopulator> biomePopulators;
     private CubicCaveGenerator caveGenerator;
     private SnowPopulator snow;
+    private RoadGenerator roads;
 	public EarthGeneratorSettings cfg;
 	private boolean doRoads;
 	private boolean doBuildings;
+	
+	//terrain data per column of cubes, so cubes above and below each other don't recompute it
+	private StripedCache<Long, Column> columns;
+	
+	//cubes whose osm structures had to wait for their regions, with which ones (MINOR_EDGES, ROADS) are still missing
+	//they are placed from the server tick once the regions are there, see onWorldTick
+	//only loaded cubes are kept here, unloaded ones carry it in their saved data instead, see onCubeSave
+	private ConcurrentHashMap<CubePos, Byte> deferred = new ConcurrentHashMap<CubePos, Byte>();
+	private ConcurrentLinkedQueue<CubePos> deferredOrder = new ConcurrentLinkedQueue<CubePos>(); //retried round robin
+	public static final byte MINOR_EDGES = 1;
+	public static final byte ROADS = 2;
+	private static final String DEFERRED_TAG = "terra121_deferred";
+	private static final int RETRIES_PER_TICK = 16;
+
+	//columns currently being computed, so nobody computes the same one twice
+	private ConcurrentHashMap<Long, FutureTask<Column>> pending;
+	
+	//columns around the ones being generated are computed ahead of time on these threads
+	//so the generation thread finds them ready (or at least with their data already downloaded)
+	private static final ForkJoinPool COLUMN_POOL = new ForkJoinPool(TerraConfig.generationThreads > 0 ? TerraConfig.generationThreads
+			: Math.max(1, Runtime.getRuntime().availableProcessors() - 1), pool -> {
+				ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				t.setName("terra121 generation " + t.getPoolIndex());
+				return t;
+			}, null, true);
+	
+	private static final int PREFETCH_RADIUS = 2;
+	
+	//meters across the elevation data may be when only a rough height is needed, a zoom 9 or 10 tile pixel
+	public static final double ROUGH_HEIGHT_TOLERANCE = 200;
+	private static final int MAX_QUEUED = 256; //don't pile up work the player has already flown away from
 
     public EarthTerrainProcessor(World world) {
         super(world);
@@ -72,8 +121,11 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
         biomes = world.getBiomeProvider(); //TODO: make this not order dependent
 
         osm = new OpenStreetMaps(projection, doRoads, cfg.settings.osmwater, doBuildings);
-        heights = new Heights(13, cfg.settings.smoothblend, cfg.settings.osmwater?osm.water:null);
-        depths = new Heights(10, cfg.settings.osmwater?osm.water:null); //below sea level only generates a level 10, this shouldn't lag too bad cause a zoom 10 tile is frickin massive (64x zoom 13)
+        heights = new HeightPyramid(projection, 13, cfg.settings.smoothblend, cfg.settings.osmwater?osm.water:null);
+        depths = new HeightPyramid(projection, 10, cfg.settings.osmwater?osm.water:null); //below sea level only generates up to level 10, this shouldn't lag too bad cause a zoom 10 tile is frickin massive (64x zoom 13)
+        trees = new Trees();
+        columns = new StripedCache<Long, Column>(16, TerraConfig.columnCacheSize, col -> 1);
+        pending = new ConcurrentHashMap<Long, FutureTask<Column>>();
         
         unnaturals = new HashSet<Block>();
         unnaturals.add(Blocks.STONEBRICK);
@@ -81,8 +133,8 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
         unnaturals.add(Blocks.BRICK_BLOCK);
         
         surfacePopulators = new HashSet<ICubicPopulator>();
-        if(doRoads || cfg.settings.osmwater)surfacePopulators.add(new RoadGenerator(osm, heights, projection));
-        surfacePopulators.add(new EarthTreePopulator(projection));
+        if(doRoads || cfg.settings.osmwater)surfacePopulators.add(roads = new RoadGenerator(osm, this));
+        surfacePopulators.add(new EarthTreePopulator(this));
         snow = new SnowPopulator(); //this will go after the rest
 
         cubiccfg = cfg.getCustomCubic();
@@ -113,74 +165,35 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
             biomeBlockReplacers.put(biome, replacers);
         }
 
+        MinecraftForge.EVENT_BUS.register(this);
     }
 
-    //TODO: more efficient
     public CubePrimer generateCube(int cubeX, int cubeY, int cubeZ) {
         CubePrimer primer = new CubePrimer();
 
-        double heightarr[][] = new double[16][16];
-        boolean surface = false;
+        Column col = getColumn(cubeX, cubeZ);
+        prefetchColumns(cubeX, cubeZ);
+        int minblock = Coords.cubeToMinBlock(cubeY);
         
-       //null island
-    	if(-5 < cubeX && cubeX < 5 && -5 < cubeZ && cubeZ < 5) {
-    		for(int x=0; x<16; x++)
-                for(int z=0; z<16; z++)
-                	heightarr[x][z] = 1;
-    	} else {
-        
-	        //get heights before hand
-	        for(int x=0; x<16; x++) {
-	            for(int z=0; z<16; z++) {
-	            	
-	            	double[] projected = projection.toGeo((cubeX*16 + x), (cubeZ*16 + z));
-	                double Y = heights.estimateLocal(projected[0], projected[1]);
-	                heightarr[x][z] = Y;
-	                
-	                if(Coords.cubeToMinBlock(cubeY)<Y && Coords.cubeToMinBlock(cubeY)+16>Y) {
-	                    surface = true;
-	                }
-	            }
-	        }
-    	}
+        boolean surface = false;
+        if(!col.nullIsland)
+        	for(double Y: col.heights)
+        		if(minblock<Y && minblock+16>Y)
+        			surface = true;
 
     	//fill in the world
         for(int x=0; x<16; x++) {
             for(int z=0; z<16; z++) {
-            	double Y = heightarr[x][z];      	
-            	
-            	double[] projected = projection.toGeo((cubeX*16 + x), (cubeZ*16 + z));
-            	double wateroff = 0;
-            	if(cfg.settings.osmwater)wateroff = osm.water.estimateLocal(projected[0], projected[1]);
-            	
-            	//ocean?
-            	if(-0.001 < Y && Y < 0.001) {
-                    double depth = depths.estimateLocal(projected[0], projected[1]);
-                    
-                    if(depth < 0) {
-                    	Y = depth;
-                    }
-            	}
-            	
-            	/*if(-5 < cubeX && cubeX < 5 && -5 < cubeZ && cubeZ < 5);
-            	else if(wateroff>=1.4&&Y>=0) { //drop above sea level areas that are in the ocean
-            		Y = -1;
-            	}*/
-
-                //estimate slopes
-                double dx, dz;
-                if(x == 16-1)
-                    dx = heightarr[x][z]-heightarr[x-1][z];
-                else dx = heightarr[x+1][z]-heightarr[x][z];
-
-                if(z == 16-1)
-                    dz = heightarr[x][z]-heightarr[x][z-1];
-                else dz = heightarr[x][z+1]-heightarr[x][z];
+            	int i = x*16+z;
+            	double Y = col.surface[i];
+            	double wateroff = col.wateroff[i];
+            	double dx = col.dx[i];
+            	double dz = col.dz[i];
 
                 //get biome (thanks to 	z3nth10n for spoting this one)
-                List<IBiomeBlockReplacer> reps = biomeBlockReplacers.get(biomes.getBiome(new BlockPos(cubeX*16 + x, 0, cubeZ*16 + z)));
+                List<IBiomeBlockReplacer> reps = biomeBlockReplacers.get(col.biomes[i]);
 
-                for (int y = 0; y < 16 && y < Y - Coords.cubeToMinBlock(cubeY); y++) {
+                for (int y = 0; y < 16 && y < Y - minblock; y++) {
                     IBlockState block = Blocks.STONE.getDefaultState();
                     for(IBiomeBlockReplacer rep : reps) {
                         block = rep.getReplacedBlock(block, cubeX*16 + x, cubeY*16 + y + 63, cubeZ*16 + z, dx, -1, dz, Y - (cubeY*16 + y));
@@ -189,9 +202,7 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
                     primer.setBlockState(x, y, z, block);
                 }
 
-                int minblock = Coords.cubeToMinBlock(cubeY);
-
-            	if(-5 < cubeX && cubeX < 5 && -5 < cubeZ && cubeZ < 5);//NULL ISLAND
+            	if(col.nullIsland);//NULL ISLAND
             	else if (cfg.settings.osmwater){
             		if(wateroff>1) {
             		    int start = (int)(Y);
@@ -215,75 +226,97 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
 
         //spawn roads
         if((doRoads || doBuildings || cfg.settings.osmwater) && surface) {
-            Set<OpenStreetMaps.Edge> edges = osm.chunkStructures(cubeX, cubeZ);
+        	//don't hold up generation while overpass is slow, the roads get placed once the regions are there instead
+        	OpenStreetMaps.EdgeCursor e = osm.loadedStructures(cubeX, cubeZ);
+
+        	if(e != null && e.loading)
+        		defer(new CubePos(cubeX, cubeY, cubeZ), MINOR_EDGES);
+        	else if(e != null) {
+        		placeMinorEdges(e, col, cubeX, cubeY, cubeZ, new BlockAccess() {
+        			public IBlockState get(int x, int y, int z) {
+        				return primer.getBlockState(x, y, z);
+        			}
+
+        			public void set(int x, int y, int z, IBlockState state) {
+        				primer.setBlockState(x, y, z, state);
+        			}
+        		});
+        	}
+        }
 
-            if(edges != null) {
+        return primer;
+    }
 
-                /*for(int x=0; x<16; x++) {
-                    for(int z=0; z<16; z++) {
-                        int y = heightarr[x][z] - Coords.cubeToMinBlock(cubeY);
-                        if(y >= 0 && y < 16)
-                            primer.setBlockState(x, y, z, Blocks.COBBLESTONE.getDefaultState());
-                    }
-                }*/
-
-                //minor one block wide roads get plastered first
-                for (OpenStreetMaps.Edge e: edges) if(e.type == OpenStreetMaps.Type.ROAD || e.type == OpenStreetMaps.Type.MINOR
-                                                    || e.type == OpenStreetMaps.Type.STREAM || e.type == OpenStreetMaps.Type.BUILDING) {
-                    double start = e.slon;
-                    double end = e.elon;
-
-                    if(start > end) {
-                        double tmp = start;
-                        start = end;
-                        end = tmp;
-                    }
+    //blocks of one cube, in cube relative coordinates
+    private interface BlockAccess {
+    	IBlockState get(int x, int y, int z);
+    	void set(int x, int y, int z, IBlockState state);
+    }
 
-                    int sx = (int)Math.floor(start) - cubeX*16;
-                    int ex = (int)Math.floor(end) - cubeX*16;
+    //minor one block wide roads, streams and buildings, these go straight into the terrain
+    private void placeMinorEdges(OpenStreetMaps.EdgeCursor e, Column col, int cubeX, int cubeY, int cubeZ, BlockAccess blocks) {
+        int minblock = Coords.cubeToMinBlock(cubeY);
 
-                    if(ex >= 16)ex = 16-1;
+        /*for(int x=0; x<16; x++) {
+            for(int z=0; z<16; z++) {
+                int y = heightarr[x][z] - Coords.cubeToMinBlock(cubeY);
+                if(y >= 0 && y < 16)
+                    blocks.set(x, y, z, Blocks.COBBLESTONE.getDefaultState());
+            }
+        }*/
+
+        //minor one block wide roads get plastered first
+        while (e.next()) if(e.type == OpenStreetMaps.Type.ROAD || e.type == OpenStreetMaps.Type.MINOR
+                                            || e.type == OpenStreetMaps.Type.STREAM || e.type == OpenStreetMaps.Type.BUILDING) {
+            double start = e.slon;
+            double end = e.elon;
+
+            if(start > end) {
+                double tmp = start;
+                start = end;
+                end = tmp;
+            }
 
-                    for(int x=sx>0?sx:0; x<=ex; x++) {
-                        double realx = (x+cubeX*16);
-                        if(realx < start)
-                            realx = start;
+            int sx = (int)Math.floor(start) - cubeX*16;
+            int ex = (int)Math.floor(end) - cubeX*16;
 
-                        double nextx = realx + 1;
-                        if(nextx > end)
-                            nextx = end;
+            if(ex >= 16)ex = 16-1;
 
-                        int from = (int)Math.floor((e.slope*realx + e.offset)) - cubeZ*16;
-                        int to = (int)Math.floor((e.slope*nextx + e.offset)) - cubeZ*16;
+            for(int x=sx>0?sx:0; x<=ex; x++) {
+                double realx = (x+cubeX*16);
+                if(realx < start)
+                    realx = start;
 
-                        if(from > to) {
-                            int tmp = from;
-                            from = to;
-                            to = tmp;
-                        }
+                double nextx = realx + 1;
+                if(nextx > end)
+                    nextx = end;
+
+                int from = (int)Math.floor((e.slope*realx + e.offset)) - cubeZ*16;
+                int to = (int)Math.floor((e.slope*nextx + e.offset)) - cubeZ*16;
+
+                if(from > to) {
+                    int tmp = from;
+                    from = to;
+                    to = tmp;
+                }
 
-                        if(to >= 16)to = 16-1;
+                if(to >= 16)to = 16-1;
 
-                        for(int z=from>0?from:0; z<=to; z++) {
-                            int y = (int)Math.floor(heightarr[x][z]) - Coords.cubeToMinBlock(cubeY);
+                for(int z=from>0?from:0; z<=to; z++) {
+                    int y = (int)Math.floor(col.heights[x*16+z]) - minblock;
 
-                            if(y >= 0 && y < 16) {
-                            	if(e.type == OpenStreetMaps.Type.STREAM) {
-                            		if(primer.getBlockState(x, y, z).getBlock()!=Blocks.WATER)
-                            			primer.setBlockState(x, y, z, Blocks.WATER.getDefaultState());
-                            	}
-                            	else primer.setBlockState(x, y, z, ( e.type == OpenStreetMaps.Type.ROAD ? Blocks.GRASS_PATH : e.type == OpenStreetMaps.Type.BUILDING ? Blocks.BRICK_BLOCK : Blocks.STONEBRICK).getDefaultState());
-                            }
-                        }
+                    if(y >= 0 && y < 16) {
+                    	if(e.type == OpenStreetMaps.Type.STREAM) {
+                    		if(blocks.get(x, y, z).getBlock()!=Blocks.WATER)
+                    			blocks.set(x, y, z, Blocks.WATER.getDefaultState());
+                    	}
+                    	else blocks.set(x, y, z, ( e.type == OpenStreetMaps.Type.ROAD ? Blocks.GRASS_PATH : e.type == OpenStreetMaps.Type.BUILDING ? Blocks.BRICK_BLOCK : Blocks.STONEBRICK).getDefaultState());
                     }
                 }
             }
         }
-
-        return primer;
     }
 
-
     @Override
     public void populate(ICube cube) {
         /**
@@ -295,14 +328,16 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
             Biome biome = cube.getBiome(Coords.getCubeCenter(cube));
 
             if(cfg.settings.dynamicbaseheight) {
-				double[] proj = projection.toGeo((cube.getX()*16 + 8), (cube.getZ()*16 + 8));
-				cubiccfg.expectedBaseHeight = (float) heights.estimateLocal(proj[0], proj[1]);
+				cubiccfg.expectedBaseHeight = (float) baseHeight(cube.getX(), cube.getZ());
             }
 
             MinecraftForge.EVENT_BUS.post(new PopulateCubeEvent.Pre(world, rand, cube.getX(), cube.getY(), cube.getZ(), false));
 
             CubePos pos = cube.getCoords();
 
+            //roads that couldn't go in when the cube was generated
+            placeDeferred(pos);
+
             int surf = isSurface(world, cube);
             if(surf == 0) {
                 for(ICubicPopulator pop: surfacePopulators)
@@ -319,6 +354,286 @@ public class EarthTerrainProcessor extends BasicCubeGenerator {
         }
     }
 
+    //remembers that some osm structures of the cube have to wait until its regions are loaded
+    public void defer(CubePos pos, byte what) {
+    	if(deferred.putIfAbsent(pos, what) == null)
+    		deferredOrder.add(pos);
+    	else deferred.merge(pos, what, (a, b) -> (byte)(a | b));
+    }
+
+    //places the cube's deferred structures if its regions are there now, false if they still aren't
+    //never waits on a download, so it is fine on the server thread
+    private boolean placeDeferred(CubePos pos) {
+    	Byte what = deferred.get(pos);
+    	if(what == null)
+    		return true;
+
+    	OpenStreetMaps.EdgeCursor e = osm.loadedStructures(pos.getX(), pos.getZ());
+    	if(e != null && e.loading)
+    		return false;
+
+    	//from here on the regions are either there or failed for good, either way there is no point in trying again
+    	deferred.remove(pos);
+    	if(e == null)
+    		return true;
+
+    	if((what & MINOR_EDGES) != 0) {
+    		BlockPos min = pos.getMinBlockPos();
+    		placeMinorEdges(e, getColumn(pos.getX(), pos.getZ()), pos.getX(), pos.getY(), pos.getZ(), new BlockAccess() {
+    			public IBlockState get(int x, int y, int z) {
+    				return world.getBlockState(min.add(x, y, z));
+    			}
+
+    			public void set(int x, int y, int z, IBlockState state) {
+    				world.setBlockState(min.add(x, y, z), state);
+    			}
+    		});
+    	}
+
+    	if((what & ROADS) != 0 && roads != null) {
+    		Random rand = Coords.coordsSeedRandom(world.getSeed(), pos.getX(), pos.getY(), pos.getZ());
+    		roads.generate(world, rand, pos, world.getBiome(pos.getCenterBlockPos()));
+    	}
+    	return true;
+    }
+
+    //retries a few deferred cubes every tick, round robin so ones still waiting don't hold up the rest
+    @SubscribeEvent
+    public void onWorldTick(TickEvent.WorldTickEvent event) {
+    	if(event.world != world || event.phase != TickEvent.Phase.END)
+    		return;
+
+    	for(int i=0; i<RETRIES_PER_TICK; i++) {
+    		CubePos pos = deferredOrder.poll();
+    		if(pos == null)
+    			break;
+    		if(!deferred.containsKey(pos))
+    			continue; //placed or unloaded since
+
+    		if(!neighboursLoaded(pos) || !placeDeferred(pos))
+    			deferredOrder.add(pos);
+    	}
+    }
+
+    //roads reach into the cubes around theirs, they must not make the world load (or generate) those
+    private boolean neighboursLoaded(CubePos pos) {
+    	ICubeProvider cubes = ((ICubicWorld)world).getCubeCache();
+    	for(int x=-1; x<=1; x++)
+    		for(int y=-1; y<=1; y++)
+    			for(int z=-1; z<=1; z++)
+    				if(cubes.getLoadedCube(pos.getX()+x, pos.getY()+y, pos.getZ()+z) == null)
+    					return false;
+    	return true;
+    }
+
+    //deferred structures are saved with the cube, so they aren't lost when it is unloaded (or the server stops) before its regions are there
+    @SubscribeEvent
+    public void onCubeSave(CubeDataEvent.Save event) {
+    	if(event.getWorld() != world)
+    		return;
+
+    	ICube cube = event.getCube();
+    	Byte what = deferred.get(cube.getCoords());
+    	if(what != null) {
+    		event.getData().setByte(DEFERRED_TAG, what);
+    		if(!cube.isCubeLoaded()) //saved on its way out
+    			deferred.remove(cube.getCoords());
+    	}
+    }
+
+    @SubscribeEvent
+    public void onCubeLoad(CubeDataEvent.Load event) {
+    	if(event.getWorld() == world && event.getData().hasKey(DEFERRED_TAG))
+    		defer(event.getCube().getCoords(), event.getData().getByte(DEFERRED_TAG));
+    }
+
+    //cubes that aren't saved on the way out already have what they are missing on disk
+    @SubscribeEvent
+    public void onCubeUnload(CubeEvent.Unload event) {
+    	if(event.getWorld() == world && !event.getCube().needsSaving())
+    		deferred.remove(event.getCube().getCoords());
+    }
+
+    @SubscribeEvent
+    public void onWorldUnload(WorldEvent.Unload event) {
+    	if(event.getWorld() == world)
+    		MinecraftForge.EVENT_BUS.unregister(this);
+    }
+
+    //terrain data for a 16x16 column of blocks, shared by every cube stacked in it and by the populators
+    //all arrays are indexed x*16+z
+    public static class Column {
+    	public final double[] heights = new double[16*16]; //surface elevation
+    	public final double[] surface = new double[16*16]; //elevation after ocean depths, what actually gets filled in
+    	public final float[] wateroff = new float[16*16];
+    	public final double[] dx = new double[16*16];
+    	public final double[] dz = new double[16*16];
+    	public final Biome[] biomes = new Biome[16*16];
+    	public boolean nullIsland;
+    	
+    	//corner of the column, trees are only sampled there
+    	private double lon, lat;
+    	private volatile double canopy = Double.NaN;
+    }
+    
+    public Column getColumn(int cubeX, int cubeZ) {
+    	Long key = ((long)cubeX<<32) | (cubeZ&0xffffffffL);
+    	Column col = columns.get(key);
+    	if(col != null)
+    		return col;
+    	
+    	FutureTask<Column> task = columnTask(key);
+    	task.run(); //does nothing if a worker is already on it, we just wait for it then
+    	
+    	try {
+    		return task.get();
+    	} catch (InterruptedException | ExecutionException e) {
+    		throw new RuntimeException("Failed to generate terrain data for column " + cubeX + " " + cubeZ, e);
+    	}
+    }
+    
+    //queue up the columns around this one in the background
+    private void prefetchColumns(int cubeX, int cubeZ) {
+    	if(COLUMN_POOL.getQueuedSubmissionCount() > MAX_QUEUED)
+    		return;
+    	
+    	for(int x=-PREFETCH_RADIUS; x<=PREFETCH_RADIUS; x++)
+    		for(int z=-PREFETCH_RADIUS; z<=PREFETCH_RADIUS; z++) {
+    	    	Long key = ((long)(cubeX+x)<<32) | ((cubeZ+z)&0xffffffffL);
+    	    	if(!columns.containsKey(key) && !pending.containsKey(key))
+    	    		COLUMN_POOL.execute(columnTask(key));
+    		}
+    }
+    
+    private FutureTask<Column> columnTask(Long key) {
+    	FutureTask<Column> task = new FutureTask<Column>(() -> loadColumn(key));
+    	FutureTask<Column> existing = pending.putIfAbsent(key, task);
+    	return existing != null ? existing : task;
+    }
+    
+    //runs on whichever thread gets to the column task first
+    private Column loadColumn(Long key) {
+    	try {
+    		Column col = columns.get(key);
+    		if(col == null) {
+    			col = computeColumn((int)(key >> 32), (int)(long)key);
+    			columns.put(key, col);
+    		}
+    		return col;
+    	} finally {
+    		pending.remove(key);
+    	}
+    }
+    
+    private Column computeColumn(int cubeX, int cubeZ) {
+    	Column col = new Column();
+    	
+        //project every column once, the geographic coordinates are shared by heights, depths and water
+        double[] geo = new double[16*16*2];
+        double[] buf = new double[2];
+        for(int x=0; x<16; x++) {
+            for(int z=0; z<16; z++) {
+            	projection.toGeo((cubeX*16 + x), (cubeZ*16 + z), buf);
+            	geo[2*(x*16+z)] = buf[0];
+            	geo[2*(x*16+z)+1] = buf[1];
+            }
+        }
+        col.lon = geo[0];
+        col.lat = geo[1];
+        
+        double[] heightarr = col.heights;
+        double[] depth = new double[16*16];
+        boolean ocean = false;
+        
+       //null island
+    	if(-5 < cubeX && cubeX < 5 && -5 < cubeZ && cubeZ < 5) {
+    		col.nullIsland = true;
+    		Arrays.fill(heightarr, 1);
+    	} else {
+        
+	        //get heights before hand, the whole column in one go
+    		heights.estimateGrid(geo, heightarr, 16*16);
+	        for(double Y: heightarr)
+	        	if(-0.001 < Y && Y < 0.001)
+	        		ocean = true;
+    	}
+    	
+    	//ocean depths are only needed if some of the column is at sea level
+    	if(ocean)
+    		depths.estimateGrid(geo, depth, 16*16);
+    	
+        for(int x=0; x<16; x++) {
+            for(int z=0; z<16; z++) {
+            	int i = x*16+z;
+            	double Y = heightarr[i];
+            	
+            	if(cfg.settings.osmwater)col.wateroff[i] = osm.water.estimateLocal(geo[2*i], geo[2*i+1]);
+            	
+            	//ocean?
+            	if(-0.001 < Y && Y < 0.001 && depth[i] < 0)
+            		Y = depth[i];
+            	col.surface[i] = Y;
+            	
+            	/*if(-5 < cubeX && cubeX < 5 && -5 < cubeZ && cubeZ < 5);
+            	else if(wateroff>=1.4&&Y>=0) { //drop above sea level areas that are in the ocean
+            		Y = -1;
+            	}*/
+
+                //estimate slopes
+                if(x == 16-1)
+                    col.dx[i] = heightarr[i]-heightarr[i-16];
+                else col.dx[i] = heightarr[i+16]-heightarr[i];
+
+                if(z == 16-1)
+                    col.dz[i] = heightarr[i]-heightarr[i-1];
+                else col.dz[i] = heightarr[i+1]-heightarr[i];
+            }
+        }
+        
+        //the biome provider caches whole chunks, laid out x*16 + z just like columns
+        biomes.getBiomes(col.biomes, cubeX*16, cubeZ*16, 16, 16);
+        
+        //start downloading the osm regions for roads and buildings too, without waiting on them
+        if(doRoads || doBuildings)
+        	osm.regionsLoaded(cubeX, cubeZ);
+        
+        return col;
+    }
+    
+    //surface elevation at any block position, interpolated between the cached block columns
+    public double getHeight(double x, double z) {
+    	int fx = (int)Math.floor(x);
+    	int fz = (int)Math.floor(z);
+    	double u = x-fx;
+    	double v = z-fz;
+    	
+    	double ll = columnHeight(fx, fz);
+    	double lr = columnHeight(fx+1, fz);
+    	double ul = columnHeight(fx, fz+1);
+    	double ur = columnHeight(fx+1, fz+1);
+    	return (1-v)*(ll*(1-u) + lr*u) + (ul*(1-u) + ur*u)*v;
+    }
+    
+    private double columnHeight(int x, int z) {
+    	return getColumn(x>>4, z>>4).heights[(x&15)*16 + (z&15)];
+    }
+    
+    //rough surface height in the middle of a column, without computing the column
+    private double baseHeight(int cubeX, int cubeZ) {
+    	//always the coarse estimate, even when the column is cached, so populators see the same value whatever was generated first
+    	double[] geo = projection.toGeo(cubeX*16 + 8, cubeZ*16 + 8);
+    	return heights.estimateCoarse(geo[0], geo[1], ROUGH_HEIGHT_TOLERANCE);
+    }
+    
+    //tree cover at the corner of a column
+    public double getCanopy(int cubeX, int cubeZ) {
+    	Column col = getColumn(cubeX, cubeZ);
+    	double canopy = col.canopy;
+    	if(canopy != canopy) //not sampled yet
+    		col.canopy = canopy = trees.estimateLocal(col.lon, col.lat);
+    	return canopy;
+    }
+
     //TODO: so inefficient but it's the best i could think of, short of caching this state by coords
     //TODO: factor in if air right above solid cube
     private int isSurface(World world, ICube cube) {
@@ -14,6 +14,13 @@ public class TerraConfig {
 			  "URL must be able to take interpreter input by adding a \'?\'",
 			  "e.x. \"https://.../api/interpreter\""})
 	public static String serverOverpass = "https://overpass.kumi.systems/api/interpreter"; //"https://overpass-api.de/api/interpreter"
+
+	@Name("osm_extract")
+	@Comment({"Path to a local .osm.pbf extract to take roads, water and buildings from instead of the overpass interpreter",
+			  "It is indexed into the cache directory the first time it is used (and again whenever the file changes), which can take a while",
+			  "Indexing needs memory for the roads, water and buildings in it, a gigabyte or two for a country sized extract, so cut larger ones down first",
+			  "Leave empty to use the overpass interpreter"})
+	public static String osmExtract = "";
 	
 	@Name("rest_tree_services")
 	@Comment({"An ArcGIS REST API instance with tree cover support",
@@ -26,23 +33,91 @@ public class TerraConfig {
 			  "End with a \"/\" e.x. https://.../terrarium/"})
 	public static String serverTerrain = "https://s3.amazonaws.com/elevation-tiles-prod/terrarium/";
 	
+	@Name("elevation_source")
+	@Comment({"Local elevation data to use before asking the terrarium instance",
+			  "Either a folder of terrarium tiles laid out as zoom/x/y.png, a tile archive packed from one (see TileArchive),",
+			  "or a .dem raw elevation grid (see RawDem), tiles it doesn't cover still come from the terrarium instance",
+			  "Leave empty to only use the terrarium instance, or empty the terrarium instance to only use local data"})
+	public static String elevationSource = "";
+	
 	@Name("cache_size")
 	@Comment({"Amount of tiles to keep in memory at once",
 			  "This applies to both tree data and height data",
-			  "Every tile takes exactly 262,144 bytes of memory (plus some support structures)",
-			  "The memory requirement for the tiles will be about cacheSize/2 MB",
+			  "The cache is limited to 262,144 bytes of memory per tile, but height tiles only take 196,608 bytes and tree tiles 65,536 bytes so more will fit",
+			  "The memory requirement for the tiles will be at most cacheSize/4 MB for each dataset (heights, ocean depths and trees)",
 			  "Warning: This number should be at least 4*playerCount to prevent massive slowdowns and internet usage, lower at your own risk"})
 	@RangeInt(min = 1)
 	public static int cacheSize = 100;
 	
+	@Name("column_cache_size")
+	@Comment({"Number of chunk columns to keep generated terrain data (heights, water and biomes) for",
+			  "Every cube in a column reuses this data, each column takes about 11KB"})
+	@RangeInt(min = 1)
+	public static int columnCacheSize = 1024;
+	
+	@Name("generation_threads")
+	@Comment({"Number of threads computing terrain data (heights, water and biomes) for the columns around the ones being generated",
+			  "0 uses one less than the number of processors, leaving one for the server thread"})
+	@RangeInt(min = 0)
+	public static int generationThreads = 0;
+	
+	@Name("off_heap_tiles")
+	@Comment({"Store height tiles outside of the java heap",
+			  "This takes pressure off of the garbage collector with large caches, but the memory won't show up in the heap size"})
+	public static boolean offHeapTiles = false;
+	
+	@Name("download_threads")
+	@Comment({"Number of threads used to download height and tree tiles in the background",
+			  "Tiles next to the ones being generated are fetched ahead of time on these threads"})
+	@RangeInt(min = 1)
+	public static int downloadThreads = 4;
+	
+	@Name("disk_cache_size")
+	@Comment({"Maximum size of the tile cache on disk in megabytes",
+			  "Downloaded height and tree tiles are saved here so they don't have to be downloaded again after a restart",
+			  "The least recently used tiles are deleted once this size is reached, set to 0 to disable"})
+	@RangeInt(min = 0)
+	public static int diskCacheSize = 2048;
+	
+	@Name("cache_directory")
+	@Comment({"Folder to save cached data in, relative to the server/game directory"})
+	public static String cacheDirectory = "terra121_cache";
+	
 	@Name("osm_cache_size")
 	@Comment({"Number of OSM regions to keep data about at a time",
 			  "(these tiles are roughly 1,850 meters/blocks in length but this varies based on position and projection) (they are exactly 1 arcminute across)",
+			  "The cache is limited to about 64KB of memory per region, so regions with lots of roads count for more than one",
 			  "Warning: The amount of memory taken by theses tiles fluctuates based on region and is not well studied, raise at your own risk",
 			  "Warning: This number should be at least 9*playerCount to prevent massive slowdowns and internet useage, lower at your own risk"})
 	@RangeInt(min = 1)
 	public static int osmCacheSize = 1000;
 	
+	@Name("osm_download_threads")
+	@Comment({"Number of OSM regions to download from the overpass interpreter at the same time",
+			  "Keep this low, most instances limit how many requests a client can have running"})
+	@RangeInt(min = 1)
+	public static int osmDownloadThreads = 2;
+
+	@Name("osm_batch_size")
+	@Comment({"Largest number of OSM regions along each side of the area a single overpass query may cover",
+			  "Neighbouring regions waiting to be downloaded are asked for together, so there are fewer (but larger) requests",
+			  "Set to 1 to ask for every region on its own"})
+	@RangeInt(min = 1, max = 8)
+	public static int osmBatchSize = 3;
+
+	@Name("osm_disk_cache_size")
+	@Comment({"Maximum size of the OSM region cache on disk in megabytes",
+			  "Downloaded roads, buildings and water are saved here in a compact form so they don't have to be asked from overpass again",
+			  "The least recently used regions are deleted once this size is reached, set to 0 to disable"})
+	@RangeInt(min = 0)
+	public static int osmDiskCacheSize = 512;
+
+	@Name("osm_max_age")
+	@Comment({"Number of days a saved OSM region is used for before it is asked from overpass again",
+			  "So edits to OpenStreetMap eventually show up in newly generated terrain, set to 0 to keep them forever"})
+	@RangeInt(min = 0)
+	public static int osmMaxAge = 30;
+	
 	@Name("three_water")
 	@Comment({"Require 3 water sources in order to form a new source instead of the vanilla 2",
 			"This will make generated streams more stable but will disrupt vanilla water mechanics like 2x2 infinite water sources",
@@ -0,0 +1,293 @@
+package io.github.terra121.dataset;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import io.github.terra121.TerraConfig;
+import io.github.terra121.TerraMod;
+
+//run length coded bytes with fast random access, for big mostly uniform grids like soil types
+//runs are kept in two plain arrays (where each one starts and its value) instead of an object per run,
+//and a coarse index of which run every block of cells starts in keeps lookups to a short search
+//the arrays can also be memory mapped from a compiled file, see compiled()
+public class ByteRunlength {
+	public static final String EXTENSION = ".runs"; //compiled files, in the jar next to their resource and in the cache directory
+
+	private static final int BLOCK_SHIFT = 12; //4096 cells per index entry
+
+	private static final int MAGIC = 0x52313231; //"R121"
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;
+
+	private final IntBuffer starts;
+	private final ByteBuffer values;
+	private final IntBuffer blocks; //run containing the first cell of every block
+	private final int numBlocks;
+	private final int runs;
+	private final int size;
+
+	private ByteRunlength(Builder b) {
+		runs = b.runs;
+		size = b.size;
+		starts = IntBuffer.wrap(Arrays.copyOf(b.starts, runs));
+		values = ByteBuffer.wrap(Arrays.copyOf(b.values, runs));
+
+		numBlocks = (size >> BLOCK_SHIFT) + 1;
+		blocks = IntBuffer.allocate(numBlocks);
+		int r = 0;
+		for(int i=0; i<numBlocks; i++) {
+			int first = i << BLOCK_SHIFT;
+			while(r+1 < runs && starts.get(r+1) <= first)
+				r++;
+			blocks.put(i, r);
+		}
+	}
+
+	//layout of a compiled file: header, then starts, blocks and values back to back
+	private ByteRunlength(MappedByteBuffer map, int size, int runs) {
+		this.size = size;
+		this.runs = runs;
+		numBlocks = (size >> BLOCK_SHIFT) + 1;
+
+		map.position(HEADER);
+		starts = map.slice().asIntBuffer();
+		map.position(HEADER + runs*4);
+		blocks = map.slice().asIntBuffer();
+		map.position(HEADER + runs*4 + numBlocks*4);
+		values = map.slice();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int runs() {
+		return runs;
+	}
+
+	public byte get(int idx) {
+		if(idx >= size || idx < 0) {
+			throw new IndexOutOfBoundsException(idx + " >= " + size);
+		}
+
+		//the run is somewhere between the ones the block and the next block start in
+		int block = idx >> BLOCK_SHIFT;
+		int low = blocks.get(block);
+		int high = block+1 < numBlocks ? blocks.get(block+1) : runs-1;
+
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(starts.get(mid) <= idx)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+
+		return values.get(low);
+	}
+
+	public interface Compiler {
+		ByteRunlength compile(InputStream in) throws IOException;
+	}
+
+	//a bundled resource compiled into a file that is memory mapped from the cache directory, so starting up is next to free
+	//and servers on the same machine share the pages. the build compiles it into the jar (see CompileDatasets), which only has to be
+	//copied out the first time. without that (running from an ide) it is parsed by compile the first time, or after the resource changes.
+	//if the cache can't be written it is just parsed every time
+	public static ByteRunlength compiled(String resource, Compiler compile) throws IOException {
+		File file = new File(new File(TerraConfig.cacheDirectory, "datasets"), new File(resource).getName() + EXTENSION);
+
+		URL bundled = ByteRunlength.class.getClassLoader().getResource(resource + EXTENSION);
+		if(bundled != null) {
+			try {
+				//the copy is current if it was compiled from the same resource as the one in the jar
+				long length, modified;
+				try (DataInputStream in = new DataInputStream(bundled.openStream())) {
+					if(in.readInt() != MAGIC || in.readInt() != VERSION)
+						throw new IOException("Bad compiled dataset header");
+					length = in.readLong();
+					modified = in.readLong();
+				}
+
+				ByteRunlength mapped = map(file, length, modified);
+				if(mapped == null) {
+					save(file, tmp -> {
+						try (InputStream in = bundled.openStream()) {
+							Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+						}
+					});
+					mapped = map(file, length, modified);
+				}
+				if(mapped != null)
+					return mapped;
+			} catch(IOException e) {
+				TerraMod.LOGGER.error("Failed to copy compiled " + resource + " to " + file + ", compiling it again : " + e);
+			}
+		}
+
+		URL url = ByteRunlength.class.getClassLoader().getResource(resource);
+		if(url == null)
+			throw new IOException("Missing resource " + resource);
+
+		URLConnection con = url.openConnection();
+		long length = con.getContentLengthLong();
+		long modified = con.getLastModified();
+
+		try {
+			ByteRunlength mapped = map(file, length, modified);
+			if(mapped != null)
+				return mapped;
+		} catch(IOException e) {
+			TerraMod.LOGGER.error("Failed to map " + file + ", compiling it again : " + e);
+		}
+
+		ByteRunlength data;
+		try (InputStream in = con.getInputStream()) {
+			data = compile.compile(in);
+		}
+
+		try {
+			save(file, tmp -> data.write(tmp, length, modified));
+		} catch(IOException e) {
+			TerraMod.LOGGER.error("Failed to save compiled " + resource + " : " + e);
+		}
+		return data;
+	}
+
+	//the build step, compiles source into out the same way compiled() would
+	public static void compile(File source, File out, Compiler compile) throws IOException {
+		ByteRunlength data;
+		try (InputStream in = new FileInputStream(source)) {
+			data = compile.compile(in);
+		}
+		out.getAbsoluteFile().getParentFile().mkdirs();
+		data.write(out, source.length(), source.lastModified());
+	}
+
+	private interface Writer {
+		void write(File tmp) throws IOException;
+	}
+
+	//written to a temporary file next to the real one and moved over it, so another server mapping it never sees it missing or half written
+	private static void save(File file, Writer writer) throws IOException {
+		file.getParentFile().mkdirs();
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			writer.write(tmp);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	//null if the file doesn't exist or was compiled from a different version of the resource
+	private static ByteRunlength map(File file, long length, long modified) throws IOException {
+		if(!file.isFile() || file.length() < HEADER)
+			return null;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			if(raf.readInt() != MAGIC || raf.readInt() != VERSION || raf.readLong() != length || raf.readLong() != modified)
+				return null;
+
+			int size = raf.readInt();
+			int runs = raf.readInt();
+			if(size < 0 || runs < 0 || file.length() != HEADER + runs*5L + ((size >> BLOCK_SHIFT) + 1)*4L)
+				throw new IOException("Bad compiled dataset size");
+
+			return new ByteRunlength(channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length()), size, runs);
+		}
+	}
+
+	private void write(File file, long length, long modified) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeLong(modified);
+			out.writeInt(size);
+			out.writeInt(runs);
+
+			for(int i=0; i<runs; i++)
+				out.writeInt(starts.get(i));
+			for(int i=0; i<numBlocks; i++)
+				out.writeInt(blocks.get(i));
+			for(int i=0; i<runs; i++)
+				out.writeByte(values.get(i));
+		}
+	}
+
+	//cells are added in order, neighbouring runs of the same value are merged
+	public static class Builder {
+		private int[] starts = new int[1024];
+		private byte[] values = new byte[1024];
+		private int runs;
+		private int size;
+
+		public Builder add(byte value) {
+			return addRun(value, 1);
+		}
+
+		public Builder addRun(byte value, int num) {
+			if(num <= 0)
+				return this;
+
+			if(runs == 0 || values[runs-1] != value) {
+				if(runs == starts.length) {
+					starts = Arrays.copyOf(starts, runs*2);
+					values = Arrays.copyOf(values, runs*2);
+				}
+				starts[runs] = size;
+				values[runs] = value;
+				runs++;
+			}
+			size += num;
+			return this;
+		}
+
+		public Builder addAll(byte[] data, int off, int len) {
+			int end = off + len;
+			while(off < end) {
+				byte value = data[off];
+				int run = off + 1;
+				while(run < end && data[run] == value)
+					run++;
+				addRun(value, run - off);
+				off = run;
+			}
+			return this;
+		}
+
+		//every remaining byte of the stream is one cell
+		public Builder addAll(InputStream in) throws IOException {
+			byte[] buf = new byte[1<<16];
+			int n;
+			while((n = in.read(buf)) > 0)
+				addAll(buf, 0, n);
+			return this;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public ByteRunlength build() {
+			return new ByteRunlength(this);
+		}
+	}
+}
@@ -9,18 +9,26 @@ public class Climate {
     public static final int COLS = 720;
     public static final int ROWS = 360;
 
-    private ClimateData[] data;
+    //outside of the grid
+    private static final float NO_TEMP = -50;
+    private static final float NO_PRECIP = 0;
+
+    //column major (x*ROWS + y), like the file
+    private float[] temp;
+    private float[] precip;
 
     public Climate(InputStream input) throws IOException {
         try {
             DataInputStream out = new DataInputStream(new BufferedInputStream(input));
 
-            data = new ClimateData[COLS * ROWS];
+            temp = new float[COLS * ROWS];
+            precip = new float[COLS * ROWS];
 
-            for (int x = 0; x < data.length; x++) {
+            for (int x = 0; x < temp.length; x++) {
                 out.readFloat();
                 out.readFloat();
-                data[x] = new ClimateData(out.readFloat(), out.readFloat());
+                temp[x] = out.readFloat();
+                precip[x] = out.readFloat();
             }
         } catch (IOException ioe) {
             throw new IOException("Failed to load climate data: "+ioe);
@@ -29,33 +37,89 @@ public class Climate {
 
     public ClimateData getOfficial(int x, int y) {
         if(x>=COLS || x<0 || y>=ROWS || y<0)
-            return new ClimateData(-50, 0);
-        return data[x*ROWS + y];
+            return new ClimateData(NO_TEMP, NO_PRECIP);
+        return new ClimateData(temp[x*ROWS + y], precip[x*ROWS + y]);
     }
 
     public ClimateData getPoint(double x, double y) {
-        x = (COLS*(x+180)/360);
-        y = (ROWS*(90-y)/180);
+        double[] out = new double[2];
+        getPoint(x, y, out);
+        return new ClimateData(out[0], out[1]);
+    }
+
+    //temperature and precipitation at lon, lat into out[0] and out[1], without allocating anything
+    public void getPoint(double lon, double lat, double[] out) {
+        double x = (COLS*(lon+180)/360);
+        double y = (ROWS*(90-lat)/180);
+        int X = (int)Math.floor(x);
+        int Y = (int)Math.floor(y);
+
+        double u = x-X;
+        double v = y-Y;
+
+        out[0] = (1-v)*(get(temp, X, Y, NO_TEMP)*(1-u) + get(temp, X+1, Y, NO_TEMP)*u)
+                + (get(temp, X, Y+1, NO_TEMP)*(1-u) + get(temp, X+1, Y+1, NO_TEMP)*u)*v;
+        out[1] = (1-v)*(get(precip, X, Y, NO_PRECIP)*(1-u) + get(precip, X+1, Y, NO_PRECIP)*u)
+                + (get(precip, X, Y+1, NO_PRECIP)*(1-u) + get(precip, X+1, Y+1, NO_PRECIP)*u)*v;
+    }
+
+    public double getTemp(double lon, double lat) {
+        double x = (COLS*(lon+180)/360);
+        double y = (ROWS*(90-lat)/180);
         int X = (int)Math.floor(x);
         int Y = (int)Math.floor(y);
 
         double u = x-X;
         double v = y-Y;
 
-        ClimateData ll = getOfficial(X,Y);
-        ClimateData lr = getOfficial(X+1,Y);
-        ClimateData ur = getOfficial(X+1,Y+1);
-        ClimateData ul = getOfficial(X,Y+1);
+        return (1-v)*(get(temp, X, Y, NO_TEMP)*(1-u) + get(temp, X+1, Y, NO_TEMP)*u)
+                + (get(temp, X, Y+1, NO_TEMP)*(1-u) + get(temp, X+1, Y+1, NO_TEMP)*u)*v;
+    }
+
+    //samples count lon,lat pairs from geo (like a column's 16x16 grid) into temps and precips
+    //neighbouring points almost always share a climate cell (they are about 50km across), so its corners are only looked up once
+    public void getGrid(double[] geo, double[] temps, double[] precips, int count) {
+        int cellX = Integer.MIN_VALUE, cellY = Integer.MIN_VALUE;
+        double t00 = 0, t10 = 0, t01 = 0, t11 = 0;
+        double p00 = 0, p10 = 0, p01 = 0, p11 = 0;
+
+        for(int i=0; i<count; i++) {
+            double x = (COLS*(geo[2*i]+180)/360);
+            double y = (ROWS*(90-geo[2*i+1])/180);
+            int X = (int)Math.floor(x);
+            int Y = (int)Math.floor(y);
+
+            if(X != cellX || Y != cellY) {
+                cellX = X;
+                cellY = Y;
+                t00 = get(temp, X, Y, NO_TEMP);
+                t10 = get(temp, X+1, Y, NO_TEMP);
+                t01 = get(temp, X, Y+1, NO_TEMP);
+                t11 = get(temp, X+1, Y+1, NO_TEMP);
+                p00 = get(precip, X, Y, NO_PRECIP);
+                p10 = get(precip, X+1, Y, NO_PRECIP);
+                p01 = get(precip, X, Y+1, NO_PRECIP);
+                p11 = get(precip, X+1, Y+1, NO_PRECIP);
+            }
+
+            double u = x-X;
+            double v = y-Y;
+            temps[i] = (1-v)*(t00*(1-u) + t10*u) + (t01*(1-u) + t11*u)*v;
+            precips[i] = (1-v)*(p00*(1-u) + p10*u) + (p01*(1-u) + p11*u)*v;
+        }
+    }
 
-        return new ClimateData((1-v)*(ll.temp*(1-u) + lr.temp*u) + (ul.temp*(1-u) + ur.temp*u)*v,
-                (1-v)*(ll.precip*(1-u) + lr.precip*u) + (ul.precip*(1-u) + ur.precip*u)*v);
+    private static double get(float[] data, int x, int y, float outside) {
+        if(x>=COLS || x<0 || y>=ROWS || y<0)
+            return outside;
+        return data[x*ROWS + y];
     }
 
     //rough estimate of snow cover
     public boolean isSnow(double x, double y, double alt) {
-		return alt>5000 || getPoint(x,y).temp<0; //high elevations or freezing temperatures
+		return alt>5000 || getTemp(x,y)<0; //high elevations or freezing temperatures
 	}
-    
+
     public static class ClimateData {
         public double temp;
         public double precip;
@@ -64,9 +128,9 @@ public class Climate {
             this.temp = temp;
             this.precip = precip;
         }
-        
+
         public String toString() {
         	return temp + " " + precip;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package io.github.terra121.dataset;
+
+import java.io.File;
+import java.io.IOException;
+
+//build step (the compileDatasets gradle task), compiles the bundled run length datasets into the jar
+//so ByteRunlength.compiled only has to copy them out instead of parsing them on the first start
+//arguments: the resources directory and where the compiled files go, laid out the same way
+public class CompileDatasets {
+	public static void main(String[] args) throws IOException {
+		File resources = new File(args[0]);
+		File out = new File(args[1]);
+
+		compile(resources, out, Soil.RESOURCE, in -> new Soil(in).data);
+		compile(resources, out, WaterGround.RESOURCE, WaterGround::parse);
+	}
+
+	private static void compile(File resources, File out, String resource, ByteRunlength.Compiler compile) throws IOException {
+		File source = new File(resources, resource);
+		if(!source.isFile()) {
+			System.out.println("No " + resource + ", it won't be compiled");
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		ByteRunlength.compile(source, new File(out, resource + ByteRunlength.EXTENSION), compile);
+		System.out.println("Compiled " + resource + " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,177 @@
+package io.github.terra121.dataset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import io.github.terra121.TerraMod;
+
+//compressed files kept on disk so restarts don't have to download everything again
+//the least recently used ones get deleted once the size cap is reached
+public class DiskCache {
+	public interface Reader {
+		void read(DataInputStream in) throws IOException;
+	}
+
+	public interface Writer {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	//thrown by a reader for a file that is fine but too old to use, it is deleted without complaining
+	public static class Expired extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public Expired() {
+			super("Expired");
+		}
+	}
+
+	private static final String TEMP = ".tmp";
+
+	private final String extension;
+
+	private File dir;
+	private long maxBytes;
+	private long usedBytes;
+
+	//relative path -> file size, in access order so the eldest entry is the least recently used
+	private LinkedHashMap<String, Long> files;
+
+	public DiskCache(File dir, long maxBytes, String extension) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.extension = extension;
+		files = new LinkedHashMap<String, Long>(256, 0.75f, true);
+
+		if(!dir.isDirectory() && !dir.mkdirs()) {
+			TerraMod.LOGGER.error("Could not create cache directory " + dir + ", nothing will be saved to disk");
+			this.maxBytes = 0;
+			return;
+		}
+
+		//rebuild the lru order from last modified times (touched on every read)
+		List<File> found = new ArrayList<File>();
+		scan(dir, found);
+		found.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+		for(File f: found) {
+			long size = f.length();
+			files.put(relative(f), size);
+			usedBytes += size;
+		}
+
+		evict();
+	}
+
+	//false if it isn't cached or the reader rejected it (the file is deleted then)
+	//files are only ever replaced whole by a rename (see save), so reading them needs no lock
+	public boolean load(String key, Reader reader) {
+		key += extension;
+		synchronized(this) {
+			if(maxBytes <= 0 || files.get(key) == null) //get() also moves it to the back of the lru
+				return false;
+		}
+
+		File file = new File(dir, key);
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file))))) {
+			reader.read(in);
+
+			file.setLastModified(System.currentTimeMillis());
+			return true;
+		} catch (FileNotFoundException e) {
+			//evicted while we weren't looking
+			remove(key);
+			return false;
+		} catch (Expired e) {
+			remove(key);
+			return false;
+		} catch (IOException e) {
+			TerraMod.LOGGER.error("Failed to read cached file " + key + " : " + e);
+			remove(key);
+			return false;
+		}
+	}
+
+	//written to a temporary file next to the real one and renamed over it, so a reader never sees half a file
+	public void save(String key, Writer writer) {
+		if(maxBytes <= 0)
+			return;
+
+		key += extension;
+		File file = new File(dir, key);
+		File tmp = new File(dir, key + "." + Thread.currentThread().getId() + TEMP);
+		file.getParentFile().mkdirs();
+
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(tmp), new Deflater(Deflater.BEST_SPEED))))) {
+				writer.write(out);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			TerraMod.LOGGER.error("Failed to save " + key + " to disk : " + e);
+			tmp.delete();
+			return;
+		}
+
+		synchronized(this) {
+			Long old = files.put(key, file.length());
+			if(old != null)
+				usedBytes -= old;
+			usedBytes += file.length();
+
+			evict();
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+		while(usedBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> e = it.next();
+			new File(dir, e.getKey()).delete();
+			usedBytes -= e.getValue();
+			it.remove();
+		}
+	}
+
+	private synchronized void remove(String key) {
+		Long size = files.remove(key);
+		if(size != null)
+			usedBytes -= size;
+		new File(dir, key).delete();
+	}
+
+	private String relative(File f) {
+		return dir.toURI().relativize(f.toURI()).getPath();
+	}
+
+	private void scan(File dir, List<File> out) {
+		File[] list = dir.listFiles();
+		if(list == null)
+			return;
+
+		for(File f: list) {
+			if(f.isDirectory())
+				scan(f, out);
+			else if(f.getName().endsWith(TEMP))
+				f.delete(); //left over from a crash mid save
+			else if(f.getName().endsWith(extension))
+				out.add(f);
+		}
+	}
+}
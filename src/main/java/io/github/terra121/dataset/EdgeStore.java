@@ -0,0 +1,77 @@
+package io.github.terra121.dataset;
+
+import java.util.Arrays;
+
+//the edges of a region stored column by column in primitive arrays, instead of an object per edge
+//coordinates are in projected (block) space, see OpenStreetMaps.EdgeCursor for reading them
+public class EdgeStore {
+	private static final double NOTHING = 0.01;
+
+	public int count;
+	public double[] slon = new double[64];
+	public double[] slat = new double[64];
+	public double[] elon = new double[64];
+	public double[] elat = new double[64];
+	public double[] slope = new double[64];
+	public double[] offset = new double[64];
+	public byte[] type = new byte[64];
+	public byte[] attribute = new byte[64];
+	public byte[] lanes = new byte[64];
+	public byte[] layer = new byte[64];
+
+	public void add(double slon, double slat, double elon, double elat, byte type, byte lanes, byte attribute, byte layer) {
+		if(count == this.slon.length)
+			resize(Math.max(count*2, 16)); //trim() may have left it empty
+
+		//slope must not be infinity, slight inaccuracy shouldn't even be noticible unless you go looking for it
+		double dif = elon - slon;
+		if (-NOTHING <= dif && dif <= NOTHING) {
+			if (dif < 0) {
+				elon -= NOTHING;
+			} else {
+				elon += NOTHING;
+			}
+		}
+
+		this.slon[count] = slon;
+		this.slat[count] = slat;
+		this.elon[count] = elon;
+		this.elat[count] = elat;
+		this.type[count] = type;
+		this.lanes[count] = lanes;
+		this.attribute[count] = attribute;
+		this.layer[count] = layer;
+
+		double m = (elat - slat) / (elon - slon);
+		slope[count] = m;
+		offset[count] = slat - m * slon;
+		count++;
+	}
+
+	//drop the spare capacity once everything is added
+	public void trim() {
+		if(count < slon.length)
+			resize(count);
+	}
+
+	private void resize(int size) {
+		slon = Arrays.copyOf(slon, size);
+		slat = Arrays.copyOf(slat, size);
+		elon = Arrays.copyOf(elon, size);
+		elat = Arrays.copyOf(elat, size);
+		slope = Arrays.copyOf(slope, size);
+		offset = Arrays.copyOf(offset, size);
+		type = Arrays.copyOf(type, size);
+		attribute = Arrays.copyOf(attribute, size);
+		lanes = Arrays.copyOf(lanes, size);
+		layer = Arrays.copyOf(layer, size);
+	}
+
+	public boolean sameSegment(int i, EdgeStore other, int j) {
+		return slon[i] == other.slon[j] && slat[i] == other.slat[j] && elon[i] == other.elon[j] && elat[i] == other.elat[j];
+	}
+
+	public long estimateSize() {
+		return 128 + slon.length*52L;
+	}
+}
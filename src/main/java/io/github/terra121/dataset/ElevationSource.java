@@ -0,0 +1,33 @@
+package io.github.terra121.dataset;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.terra121.TerraConfig;
+
+//somewhere Heights can get terrarium tiles from, so elevations can come from local files as well as the terrarium server
+public interface ElevationSource {
+	//fills the 256x256 tile at zoom/x/y with elevations in 256ths of a meter, row major
+	//false if this source doesn't cover the tile
+	boolean load(int zoom, int x, int y, Tile out) throws IOException;
+
+	//where tiles from this source are kept in the disk cache, null if reading them again is about as fast as the cache
+	String cacheName();
+
+	//the local source set in TerraConfig, null if there is none
+	//a directory is read as terrarium tiles, .dem files as a raw grid and anything else as a tile archive
+	static ElevationSource local() throws IOException {
+		String path = TerraConfig.elevationSource;
+		if(path.isEmpty())
+			return null;
+
+		File file = new File(path);
+		if(file.isDirectory())
+			return new TerrariumDirectory(file);
+		if(!file.isFile())
+			throw new IOException("Elevation source " + path + " doesn't exist");
+		if(path.endsWith(".dem"))
+			return new RawDem(file);
+		return new TileArchive(file);
+	}
+}
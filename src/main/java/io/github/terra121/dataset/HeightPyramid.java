@@ -0,0 +1,128 @@
+package io.github.terra121.dataset;
+
+import io.github.terra121.TerraConfig;
+import io.github.terra121.projection.GeographicProjection;
+
+//terrarium elevations at whichever zoom matches the size of a block where they are sampled
+//a 1:1 world still uses the most detailed zoom, but scaled down worlds stop downloading tiles
+//with far more detail than a block can show (every zoom level less is 4 times fewer tiles)
+public class HeightPyramid {
+	//meters per pixel of a zoom 0 terrarium tile at the equator
+	private static final double ZOOM0_PIXEL = GeographicProjection.EARTH_CIRCUMFERENCE/256;
+
+	private GeographicProjection projection;
+	private int maxZoom;
+	private boolean smooth;
+	private Water water;
+
+	//levels are only made once something asks for them, most worlds only ever use one or two
+	private Heights[] levels;
+
+	//every level keeps its tiles in this one cache, so the pyramid as a whole stays within cacheSize
+	private StripedCache<Long, Tile> tiles = TiledDataset.newCache(TerraConfig.cacheSize, 256, 256);
+
+	//projection is the world's, so it gives blocks
+	public HeightPyramid(GeographicProjection projection, int maxZoom, boolean smooth, Water water) {
+		this.projection = projection;
+		this.maxZoom = maxZoom;
+		this.smooth = smooth;
+		this.water = water;
+		levels = new Heights[maxZoom+1];
+	}
+
+	public HeightPyramid(GeographicProjection projection, int maxZoom, Water water) {
+		this(projection, maxZoom, false, water);
+	}
+
+	//most detailed zoom whose pixels are still no smaller than a block here
+	public int zoom(double lon, double lat) {
+		if(!(lon <= 180 && lon >= -180 && lat <= 85 && lat >= -85))
+			return maxZoom;
+
+		//local scale in blocks per meter, the nominal one if the projection is too broken here to tell
+		double metersPerBlock = projection.metersPerUnit();
+		double area = projection.tissot(lon, lat, 0.0000001)[0];
+		if(area > 0 && !Double.isInfinite(area))
+			metersPerBlock = 1/Math.sqrt(area);
+
+		return zoomFor(metersPerBlock, lat);
+	}
+
+	//most detailed zoom whose pixels are at least meters across at this latitude
+	private int zoomFor(double meters, double lat) {
+		double pixels = pixels(meters, lat);
+		if(!(pixels > 1))
+			return pixels == pixels ? 0 : maxZoom;
+
+		return Math.min(maxZoom, (int)Math.floor(Math.log(pixels)/Math.log(2)));
+	}
+
+	//least detailed zoom whose pixels are at most meters across at this latitude
+	private int toleranceZoom(double meters, double lat) {
+		double pixels = pixels(meters, lat);
+		if(!(pixels > 1))
+			return pixels == pixels ? 0 : maxZoom;
+
+		return Math.min(maxZoom, (int)Math.ceil(Math.log(pixels)/Math.log(2)));
+	}
+
+	//how many meters sized pieces fit in a zoom 0 pixel
+	private static double pixels(double meters, double lat) {
+		//terrarium tiles are web mercator, so their pixels shrink away from the equator
+		return ZOOM0_PIXEL*Math.cos(Math.toRadians(lat))/meters;
+	}
+
+	public synchronized Heights level(int zoom) {
+		if(levels[zoom] == null)
+			levels[zoom] = new Heights(zoom, smooth, water, tiles);
+		return levels[zoom];
+	}
+
+	public double estimateLocal(double lon, double lat) {
+		return level(zoom(lon, lat)).estimateLocal(lon, lat);
+	}
+
+	//elevation for callers that only need it roughly right (spawn heights, teleports)
+	//tolerance is how coarse (in meters across) the data may be, nothing more detailed than that is downloaded
+	//but more detailed tiles that are already in memory are used if there are any
+	public double estimateLocal(double lon, double lat, double tolerance) {
+		if(!(lon <= 180 && lon >= -180 && lat <= 85 && lat >= -85))
+			return level(maxZoom).estimateLocal(lon, lat);
+
+		int fine = zoom(lon, lat);
+		int coarse = Math.min(fine, toleranceZoom(tolerance, lat));
+
+		for(int zoom=fine; zoom>coarse; zoom--) {
+			Heights h = existing(zoom);
+			if(h != null && h.isCached(lon, lat))
+				return h.estimateLocal(lon, lat);
+		}
+		return level(coarse).estimateLocal(lon, lat);
+	}
+
+	//always the data at tolerance (or the world's own zoom if that is coarser), never whatever happens to be in memory
+	//for anything that ends up in the world, which must not depend on the order it was generated in
+	public double estimateCoarse(double lon, double lat, double tolerance) {
+		if(!(lon <= 180 && lon >= -180 && lat <= 85 && lat >= -85))
+			return level(maxZoom).estimateLocal(lon, lat);
+
+		return level(Math.min(zoom(lon, lat), toleranceZoom(tolerance, lat))).estimateLocal(lon, lat);
+	}
+
+	private synchronized Heights existing(int zoom) {
+		return levels[zoom];
+	}
+
+	//the whole batch is taken from one zoom (picked at its first point) so a column never has a seam in it
+	public void estimateGrid(double[] geo, double[] out, int count) {
+		int zoom = maxZoom;
+		for(int i=0; i<count; i++) {
+			double lon = geo[2*i], lat = geo[2*i+1];
+			if(lon <= 180 && lon >= -180 && lat <= 85 && lat >= -85) {
+				zoom = zoom(lon, lat);
+				break;
+			}
+		}
+		level(zoom).estimateGrid(geo, out, count);
+	}
+}
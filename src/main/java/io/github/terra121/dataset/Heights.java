@@ -1,100 +1,104 @@
 package io.github.terra121.dataset;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
-import javax.imageio.ImageIO;
-
-import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.common.bytesource.ByteSourceInputStream;
-import org.apache.commons.imaging.formats.tiff.TiffImageParser;
-import org.apache.logging.log4j.LogManager;
 import io.github.terra121.TerraConfig;
 import io.github.terra121.TerraMod;
 import io.github.terra121.projection.MapsProjection;
 
 public class Heights extends TiledDataset{
     private int zoom;
-    private String url_prefix = TerraConfig.serverTerrain;
+
+    //where tiles are looked for, in order: the local source if there is one, then the terrarium instance
+    private List<ElevationSource> sources = new ArrayList<ElevationSource>();
+    private static ElevationSource local;
+    private static boolean localLoaded;
 
     private Water water;
     
     private double oceanRadius = 2.0/(60*60);
+    
+    //scratch space for the shoreline projection
+    private ThreadLocal<double[]> geo = ThreadLocal.withInitial(() -> new double[2]);
 	
     public Heights(int zoom, boolean smooth, Water water) {
-    	super(256, 256, TerraConfig.cacheSize, new MapsProjection(), 1<<(zoom+8), 1<<(zoom+8), smooth);
+    	this(zoom, smooth, water, newCache(TerraConfig.cacheSize, 256, 256));
+    }
+
+    //several zooms can share one cache (and its memory budget), their tiles are told apart by zoom
+    public Heights(int zoom, boolean smooth, Water water, StripedCache<Long, Tile> cache) {
+    	super(256, 256, cache, zoom, new MapsProjection(), 1<<(zoom+8), 1<<(zoom+8), smooth);
+    	this.numcache = TerraConfig.cacheSize;
     	this.zoom = zoom;
-    	url_prefix += zoom+"/";
     	this.water = water;
+
+    	if(localSource() != null)
+    		sources.add(local);
+    	if(!TerraConfig.serverTerrain.isEmpty())
+    		sources.add(new TerrariumServer(TerraConfig.serverTerrain));
     }
     
     public Heights(int zoom, Water water) {
     	this(zoom, false, water);
     }
 
-    //request a mapzen tile from amazon, this should only be needed evrey 2 thousand blocks or so if the cache is large enough
-    //TODO: better error handle
-    protected int[] request(Coord place) {
-        int out[] = new int[256 * 256];
-
-        for(int i=0; i<5; i++) {
+    //get a terrarium tile from the first source that has it, this should only be needed evrey 2 thousand blocks or so if the cache is large enough
+    //returns null if a source that might have had it failed, TiledDataset tries again later (see retries)
+    protected Tile request(Coord place) {
+        Tile out = newTile();
+        TileDiskCache disk = TileDiskCache.get();
+        boolean failed = false;
 
-            InputStream is = null;
+        for(ElevationSource source: sources) {
+            //every source that is worth it gets its own disk cache, so a local source in front doesn't stop server tiles being cached
+            String cacheName = source.cacheName()==null?null:source.cacheName() + "/" + zoom;
+            if(disk != null && cacheName != null && disk.load(cacheName, place.x, place.y, out))
+                return out;
 
             try {
-                String urlText = url_prefix + place.x + "/" + place.y + ".png";
-                TerraMod.LOGGER.info(urlText);
-                
-                URL url = new URL(urlText);
-                URLConnection con = url.openConnection();
-                con.addRequestProperty("User-Agent", TerraMod.USERAGENT);
-                is = con.getInputStream();
-                
-                BufferedImage img = ImageIO.read(is);
-                is.close();
-                is = null;
+                if(!source.load(zoom, place.x, place.y, out))
+                    continue; //not covered, try the next source
 
-                if(img == null) {
-                    throw new IOException("Invalid image file");
-                }
-                
-                //compile height data from image, stored in 256ths of a meter units
-                img.getRGB(0, 0, 256, 256, out, 0, 256);
-
-                for (int x = 0; x < img.getWidth(); x++) {
-                    for (int y = 0; y < img.getHeight(); y++) {
-                        int c = y * 256 + x;
-                        out[c] = (out[c] & 0x00ffffff) - 8388608;
-                        if(zoom > 10 && out[c]<-1500*256) out[c] = 0; //terrain glitch (default to 0), comment this for fun dataset glitches
-                    }
-                }
+                if(disk != null && cacheName != null)
+                    disk.save(cacheName, place.x, place.y, out);
                 return out;
-
             } catch (IOException ioe) {
-                if(is!=null) {
-                    try {
-                        is.close();
-                    } catch (IOException e) {}
-                }
-
                 TerraMod.LOGGER.error("Failed to get elevation " + place.x + " " + place.y + " : " + ioe);
+                failed = true;
             }
         }
 
-        TerraMod.LOGGER.error("Failed too many times chunks will be set to 0");
-        return out;
+        if(!failed)
+            return newTile(); //no source covers it, that won't get any better by asking again
+        return null;
+    }
+
+    protected int retries() {
+        return OpenStreetMaps.MAX_ATTEMPTS - 1;
+    }
+
+    //the local source is shared by every zoom level
+    private static synchronized ElevationSource localSource() {
+        if(!localLoaded) {
+            localLoaded = true;
+            try {
+                local = ElevationSource.local();
+            } catch (IOException e) {
+                TerraMod.LOGGER.error("Failed to open elevation source " + TerraConfig.elevationSource + ", using the terrarium instance instead : " + e);
+            }
+        }
+        return local;
     }
 
-    protected double getOfficialHeight(Coord coord) {
-    	double ret = super.getOfficialHeight(coord);
+    protected double getOfficialHeight(int x, int y) {
+    	double ret = super.getOfficialHeight(x, y);
     	
     	//shoreline smoothing
         if(water!=null && ret>-1 && ret != 0 && ret < 200) {
-	        double[] proj = projection.toGeo(coord.x/scaleX, coord.y/scaleY); //another projection, i know (horrendous)
+	        double[] proj = geo.get();
+	        projection.toGeo(x/scaleX, y/scaleY, proj); //another projection, i know (horrendous)
 	        double mine = water.estimateLocal(proj[0], proj[1]);
 	        
 	        if(mine>1.4 || ( ret>10 & ( mine>1 ||
@@ -110,6 +114,11 @@ public class Heights extends TiledDataset{
 		return data/256.0;
 	}
 	
+	//terrarium values are 24 bits so there is no need for a full int
+	protected Tile newTile() {
+		return new Tile.Int24(width*height, TerraConfig.offHeapTiles);
+	}
+	
 	/*public static void main(String args[]) {
 		TerraMod.LOGGER = LogManager.getLogger();
 		OpenStreetMaps osm = new OpenStreetMaps(new InvertedGeographic());
@@ -0,0 +1,77 @@
+package io.github.terra121.dataset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//read only memory mapping of a whole file, which can be bigger than the 2GB a single mapping is limited to
+//it is mapped in overlapping segments, so any read of up to OVERLAP bytes falls inside one of them
+//only absolute reads are used, so it can be shared between threads
+public class MappedFile {
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L<<SEGMENT_BITS) - 1;
+	public static final int OVERLAP = 1<<24;
+
+	private final MappedByteBuffer[] segments;
+	private final long size;
+
+	public MappedFile(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			size = channel.size();
+			segments = new MappedByteBuffer[(int)Math.max(1, (size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+			for(int i=0; i<segments.length; i++) {
+				long start = (long)i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, (1L<<SEGMENT_BITS) + OVERLAP));
+			}
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	private ByteBuffer segment(long pos) {
+		return segments[(int)(pos >>> SEGMENT_BITS)];
+	}
+
+	private static int offset(long pos) {
+		return (int)(pos & SEGMENT_MASK);
+	}
+
+	public byte get(long pos) {
+		return segment(pos).get(offset(pos));
+	}
+
+	public short getShort(long pos) {
+		return segment(pos).getShort(offset(pos));
+	}
+
+	public int getInt(long pos) {
+		return segment(pos).getInt(offset(pos));
+	}
+
+	public long getLong(long pos) {
+		return segment(pos).getLong(offset(pos));
+	}
+
+	public float getFloat(long pos) {
+		return segment(pos).getFloat(offset(pos));
+	}
+
+	public double getDouble(long pos) {
+		return segment(pos).getDouble(offset(pos));
+	}
+
+	//copies length (at most OVERLAP) bytes starting at pos
+	public void get(long pos, byte[] dst, int off, int length) throws IOException {
+		if(length > OVERLAP || pos < 0 || pos + length > size)
+			throw new IOException("Read of " + length + " bytes at " + pos + " is out of range");
+
+		ByteBuffer buf = segment(pos).duplicate();
+		buf.position(offset(pos));
+		buf.get(dst, off, length);
+	}
+}
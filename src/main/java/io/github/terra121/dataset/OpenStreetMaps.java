@@ -1,24 +1,32 @@
 package io.github.terra121.dataset;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import org.apache.commons.io.IOUtils;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import io.github.terra121.TerraConfig;
 import io.github.terra121.TerraMod;
@@ -28,24 +36,48 @@ public class OpenStreetMaps {
 
     private static final double CHUNK_SIZE = 16;
     public static final double TILE_SIZE = 1 / 60.0;//250*(360.0/40075000.0);
-    private static final double NOTHING = 0.01;
 
     private static final String OVERPASS_INSTANCE = "https://overpass-api.de";//"https://overpass.kumi.systems";
     private static final String URL_PREFACE = TerraConfig.serverOverpass + "/api/interpreter?data=[out:json];way(";
     private String URL_A = ")";
     private static final String URL_B = ")%20tags%20qt;(._<;);out%20body%20qt;";
     private static final String URL_C = "is_in(";
+    private static final String URL_COUNT = "out%20count;";
     private String URL_SUFFIX = ");area._[~\"natural|waterway\"~\"water|riverbank\"];out%20ids;";
 
-    private HashMap<Coord, Set<Edge>> chunks;
-    public LinkedHashMap<Coord, Region> regions;
+    //regions are downloaded on a few threads of their own so overpass isn't flooded and generation doesn't have to wait on it
+    private static final ExecutorService DOWNLOAD_POOL = Executors.newFixedThreadPool(TerraConfig.osmDownloadThreads, r -> {
+        Thread t = new Thread(r, "terra121 osm download");
+        t.setDaemon(true);
+        return t;
+    });
+
+    //also used by TiledDataset for tiles that failed
+    static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "terra121 retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY = 1000; //ms before the first retry, doubled every time
+
+    //ms to wait after a failed attempt, +-50% jitter so things that failed together don't all retry together
+    static long retryDelay(int attempt) {
+        return (long) ((RETRY_DELAY << attempt) * (0.5 + ThreadLocalRandom.current().nextDouble()));
+    }
+
+    //rough memory each cached region is allowed on average, denser regions take up more of the cache
+    private static final long REGION_BUDGET = 64*1024;
+
+    public StripedCache<Coord, Region> regions;
+    private ConcurrentHashMap<Coord, CompletableFuture<Region>> loading;
+    private Set<Coord> downloading; //regions some download attempt has taken on, so no other takes them too
+    private ThreadLocal<EdgeCursor> cursors = ThreadLocal.withInitial(EdgeCursor::new);
     public Water water;
 
     private int numcache = TerraConfig.osmCacheSize;
 
-    private ArrayList<Edge> allEdges;
-
-    private Gson gson;
 
     private GeographicProjection projection;
 
@@ -70,10 +102,9 @@ public class OpenStreetMaps {
     boolean doBuildings;
 
     public OpenStreetMaps(GeographicProjection proj, boolean doRoad, boolean doWater, boolean doBuildings) {
-        gson = new GsonBuilder().create();
-        chunks = new LinkedHashMap<Coord, Set<Edge>>();
-        allEdges = new ArrayList<Edge>();
-        regions = new LinkedHashMap<Coord, Region>();
+        loading = new ConcurrentHashMap<Coord, CompletableFuture<Region>>();
+        downloading = ConcurrentHashMap.newKeySet();
+        regions = new StripedCache<Coord, Region>(numcache/16, numcache*REGION_BUDGET, Region::estimateSize);
         projection = proj;
         try {
             water = new Water(this, 256);
@@ -96,56 +127,207 @@ public class OpenStreetMaps {
         return new Coord((int) Math.floor(lon / TILE_SIZE), (int) Math.floor(lat / TILE_SIZE));
     }
 
-    public Set<Edge> chunkStructures(int x, int z) {
-        Coord coord = new Coord(x, z);
-
-        if (regionCache(projection.toGeo(x * CHUNK_SIZE, z * CHUNK_SIZE)) == null)
+    //the edges crossing chunk x,z, null if a region around it couldn't be downloaded
+    //the cursor is reused by every call on the same thread, so it is only valid until the next one
+    public EdgeCursor chunkStructures(int x, int z) {
+        EdgeCursor cursor = cursors.get();
+        cursor.loading = false;
+        if (!cornerRegions(x, z, cursor.regions))
             return null;
 
-        if (regionCache(projection.toGeo((x + 1) * CHUNK_SIZE, z * CHUNK_SIZE)) == null)
-            return null;
+        cursor.x = x;
+        cursor.z = z;
+        cursor.reset();
+        return cursor;
+    }
 
-        if (regionCache(projection.toGeo((x + 1) * CHUNK_SIZE, (z + 1) * CHUNK_SIZE)) == null)
+    //like chunkStructures, but never waits on a download, so it is safe to call from the server thread
+    //null if a region around the chunk couldn't be downloaded, if one just isn't there yet (it starts loading then) the cursor is loading and has no edges
+    //every corner is only looked at once, so a download finishing halfway through can't make a loading chunk look failed
+    public EdgeCursor loadedStructures(int x, int z) {
+        EdgeCursor cursor = cursors.get();
+        cursor.loading = false;
+        if (!loadedRegion(projection.toGeo(x * CHUNK_SIZE, z * CHUNK_SIZE), cursor, 0)
+                || !loadedRegion(projection.toGeo((x + 1) * CHUNK_SIZE, z * CHUNK_SIZE), cursor, 1)
+                || !loadedRegion(projection.toGeo((x + 1) * CHUNK_SIZE, (z + 1) * CHUNK_SIZE), cursor, 2)
+                || !loadedRegion(projection.toGeo(x * CHUNK_SIZE, (z + 1) * CHUNK_SIZE), cursor, 3))
             return null;
 
-        if (regionCache(projection.toGeo(x * CHUNK_SIZE, (z + 1) * CHUNK_SIZE)) == null)
-            return null;
+        cursor.x = x;
+        cursor.z = z;
+        cursor.reset();
+        return cursor;
+    }
+
+    //false if the corner's region failed for good, sets loading instead if it is still on its way
+    private boolean loadedRegion(double[] geo, EdgeCursor cursor, int i) {
+        if(!(geo[0]>=-180 && geo[0]<=180 && geo[1]>=-80 && geo[1]<=80))
+            return false;
+
+        Coord coord = getRegion(geo[0], geo[1]);
+        Region region = regions.get(coord);
+        if (region == null) {
+            CompletableFuture<Region> future = requestRegion(coord);
+            if (!future.isDone()) {
+                cursor.loading = true;
+                return true;
+            }
+            if (future.isCompletedExceptionally())
+                return false;
+            region = future.getNow(null);
+        }
+        return (cursor.regions[i] = region) != null && !region.failedDownload;
+    }
 
-        return chunks.get(coord);
+    private boolean cornerRegions(int x, int z, Region[] out) {
+        return (out[0] = regionCache(projection.toGeo(x * CHUNK_SIZE, z * CHUNK_SIZE))) != null
+                && (out[1] = regionCache(projection.toGeo((x + 1) * CHUNK_SIZE, z * CHUNK_SIZE))) != null
+                && (out[2] = regionCache(projection.toGeo((x + 1) * CHUNK_SIZE, (z + 1) * CHUNK_SIZE))) != null
+                && (out[3] = regionCache(projection.toGeo(x * CHUNK_SIZE, (z + 1) * CHUNK_SIZE))) != null;
     }
 
     public Region regionCache(double[] corner) {
+        return regionCache(corner[0], corner[1]);
+    }
+
+    //blocks until the region is there, null if it couldn't be downloaded
+    public Region regionCache(double lon, double lat) {
 
         //bound check
-        if(!(corner[0]>=-180 && corner[0]<=180 && corner[1]>=-80 && corner[1]<=80))
+        if(!(lon>=-180 && lon<=180 && lat>=-80 && lat<=80))
             return null;
 
-        Coord coord = getRegion(corner[0], corner[1]);
-        Region region;
-
-        if ((region = regions.get(coord)) == null) {
-            region = new Region(coord, water);
-            int i;
-            for (i = 0; i < 5 && !regiondownload(region); i++) ;
-            regions.put(coord, region);
-            if (regions.size() > numcache) {
-                //TODO: delete beter
-                Iterator<Region> it = regions.values().iterator();
-                Region delete = it.next();
-                it.remove();
-                removeRegion(delete);
-            }
+        Coord coord = getRegion(lon, lat);
+        Region region = regions.get(coord);
 
-            if (i == 5) {
-                region.failedDownload = true;
-                TerraMod.LOGGER.error("OSM region" + region.coord.x + " " + region.coord.y + " failed to download several times, no structures will spawn");
+        if (region == null) {
+            try {
+                region = requestRegion(coord).get();
+            } catch (InterruptedException | ExecutionException e) {
+                TerraMod.LOGGER.error("Failed to get OSM region " + coord + " : " + e);
                 return null;
             }
-        } else if (region.failedDownload) return null; //don't return dummy regions
+        }
+
+        if (region.failedDownload)
+            return null; //don't return dummy regions
         return region;
     }
 
-    public boolean regiondownload(Region region) {
+    //starts loading the region in the background if it isn't already, everyone asking for the same region shares one download
+    public CompletableFuture<Region> requestRegion(Coord coord) {
+        Region region = regions.get(coord);
+        if (region != null)
+            return CompletableFuture.completedFuture(region);
+
+        return loading.computeIfAbsent(coord, c -> {
+            CompletableFuture<Region> future = new CompletableFuture<Region>();
+            DOWNLOAD_POOL.execute(() -> loadRegion(c, future, 0));
+            return future;
+        });
+    }
+
+    //true if the regions around chunk x,z are ready (or failed for good), otherwise starts getting them without waiting
+    //only good for getting the regions early, use loadedStructures to find out whether a chunk has to wait for them
+    public boolean regionsLoaded(int x, int z) {
+        boolean loaded = true;
+        loaded &= requestRegion(projection.toGeo(x * CHUNK_SIZE, z * CHUNK_SIZE)).isDone();
+        loaded &= requestRegion(projection.toGeo((x + 1) * CHUNK_SIZE, z * CHUNK_SIZE)).isDone();
+        loaded &= requestRegion(projection.toGeo((x + 1) * CHUNK_SIZE, (z + 1) * CHUNK_SIZE)).isDone();
+        loaded &= requestRegion(projection.toGeo(x * CHUNK_SIZE, (z + 1) * CHUNK_SIZE)).isDone();
+        return loaded;
+    }
+
+    private CompletableFuture<Region> requestRegion(double[] geo) {
+        if(!(geo[0]>=-180 && geo[0]<=180 && geo[1]>=-80 && geo[1]<=80))
+            return CompletableFuture.completedFuture(null); //never has a region
+        return requestRegion(getRegion(geo[0], geo[1]));
+    }
+
+    //one download attempt on the download pool, failures are retried later with exponential back off instead of hammering overpass
+    //neighbouring regions that are waiting too get downloaded along with this one
+    private void loadRegion(Coord coord, CompletableFuture<Region> future, int attempt) {
+        //another download already took this region along with its own
+        if (!downloading.add(coord))
+            return;
+        if (future.isDone()) {
+            downloading.remove(coord);
+            return;
+        }
+
+        List<Coord> batch = batch(coord);
+
+        try {
+            List<Region> download = new ArrayList<Region>();
+            for (Coord c : batch) {
+                Region region = new Region(c, water);
+                if (needsDownload(region))
+                    download.add(region);
+                else finish(region);
+            }
+
+            if (!download.isEmpty() && !regiondownload(download)) {
+                for (Region region : download) {
+                    if (attempt + 1 < MAX_ATTEMPTS) {
+                        long delay = retryDelay(attempt);
+                        CompletableFuture<Region> f = loading.get(region.coord);
+                        downloading.remove(region.coord);
+                        RETRY_SCHEDULER.schedule(() -> DOWNLOAD_POOL.execute(() -> loadRegion(region.coord, f, attempt + 1)), delay, TimeUnit.MILLISECONDS);
+                    } else {
+                        region.failedDownload = true;
+                        TerraMod.LOGGER.error("OSM region" + region.coord.x + " " + region.coord.y + " failed to download several times, no structures will spawn");
+                        finish(region);
+                    }
+                }
+            } else {
+                for (Region region : download)
+                    finish(region);
+            }
+        } catch (Throwable t) {
+            for (Coord c : batch) {
+                CompletableFuture<Region> f = loading.remove(c);
+                downloading.remove(c);
+                if (f != null)
+                    f.completeExceptionally(t);
+            }
+        }
+    }
+
+    //the region and any others in the same osmBatchSize square that are waiting to be downloaded and nobody else took yet
+    private List<Coord> batch(Coord coord) {
+        List<Coord> batch = new ArrayList<Coord>();
+        batch.add(coord);
+
+        int size = TerraConfig.osmBatchSize;
+        int bx = Math.floorDiv(coord.x, size) * size;
+        int by = Math.floorDiv(coord.y, size) * size;
+
+        for (int x = bx; x < bx + size; x++) {
+            for (int y = by; y < by + size; y++) {
+                Coord c = new Coord(x, y);
+                if (c.equals(coord) || !loading.containsKey(c) || !downloading.add(c))
+                    continue;
+
+                CompletableFuture<Region> f = loading.get(c);
+                if (f == null || f.isDone())
+                    downloading.remove(c);
+                else batch.add(c);
+            }
+        }
+        return batch;
+    }
+
+    //caches the region and hands it to everyone waiting on it
+    private void finish(Region region) {
+        regions.put(region.coord, region);
+        CompletableFuture<Region> future = loading.remove(region.coord);
+        downloading.remove(region.coord);
+        if (future != null)
+            future.complete(region);
+    }
+
+    //false if the region is out of bounds or was loaded from the disk cache
+    private boolean needsDownload(Region region) {
         double X = region.coord.x * TILE_SIZE;
         double Y = region.coord.y * TILE_SIZE;
 
@@ -155,12 +337,46 @@ public class OpenStreetMaps {
             return false;
         }
 
+        //an extract is already on disk, no need to keep another copy
+        RegionStore store = OsmExtract.enabled() ? null : RegionStore.get();
+        Ways ways = new Ways();
+        if (store != null && store.load(storeKey(region.coord), ways, region)) {
+            compile(region, ways);
+            return false;
+        }
+        return true;
+    }
+
+    public boolean regiondownload(Region region) {
+        if (!needsDownload(region))
+            return !region.failedDownload;
+        return regiondownload(Collections.singletonList(region));
+    }
+
+    //downloads several regions with one overpass query over the box around them, then splits the result back up per region
+    private boolean regiondownload(List<Region> regions) {
+        if (OsmExtract.enabled())
+            return extractRegions(regions);
+
+        double west = Double.POSITIVE_INFINITY, south = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY, north = Double.NEGATIVE_INFINITY;
+        for (Region region : regions) {
+            west = Math.min(west, region.west);
+            south = Math.min(south, region.south);
+            east = Math.max(east, region.west + TILE_SIZE);
+            north = Math.max(north, region.south + TILE_SIZE);
+        }
+
+        Batch batch = new Batch(regions);
+
         try {
-            String bottomleft = Y + "," + X;
-            String bbox = bottomleft + "," + (Y + TILE_SIZE) + "," + (X + TILE_SIZE);
+            String bbox = south + "," + west + "," + north + "," + east;
 
             String urltext = URL_PREFACE + bbox + URL_A + bbox + URL_B;
-            if (doWater) urltext += URL_C + bottomleft + URL_SUFFIX;
+
+            //the water areas around each region's corner, each list of them ends with a count so they can be told apart
+            if (doWater) for (Region region : regions)
+                urltext += URL_C + region.south + "," + region.west + URL_SUFFIX + URL_COUNT;
 
             TerraMod.LOGGER.info(urltext);
 
@@ -170,7 +386,7 @@ public class OpenStreetMaps {
             c.addRequestProperty("User-Agent", TerraMod.USERAGENT);
             InputStream is = c.getInputStream();
 
-            doGson(is, region);
+            doGson(is, batch);
 
             is.close();
 
@@ -180,6 +396,40 @@ public class OpenStreetMaps {
             return false;
         }
 
+        RegionStore store = RegionStore.get();
+        for (int i = 0; i < batch.regions.length; i++) {
+            if (store != null)
+                store.save(storeKey(batch.regions[i].coord), batch.ways[i], batch.regions[i]);
+            compile(batch.regions[i], batch.ways[i]);
+        }
+
+        return true;
+    }
+
+    //reads the regions from the local extract instead
+    private boolean extractRegions(List<Region> regions) {
+        try {
+            OsmExtract extract = OsmExtract.get();
+
+            for (Region region : regions) {
+                Batch batch = new Batch(Collections.singletonList(region));
+                extract.read(region.coord, batch::element);
+                batch.finish();
+                compile(region, batch.ways[0]);
+            }
+        } catch (IOException e) {
+            TerraMod.LOGGER.error("Failed to read OSM extract " + TerraConfig.osmExtract + ", no osm features will spawn, " + e);
+            return false;
+        }
+
+        return true;
+    }
+
+    //projects the region's ways and indexes them by chunk
+    private void compile(Region region, Ways ways) {
+        double X = region.coord.x * TILE_SIZE;
+        double Y = region.coord.y * TILE_SIZE;
+
         double[] ll = projection.fromGeo(X, Y);
         double[] lr = projection.fromGeo(X + TILE_SIZE, Y);
         double[] ur = projection.fromGeo(X + TILE_SIZE, Y + TILE_SIZE);
@@ -191,268 +441,298 @@ public class OpenStreetMaps {
         int lowZ = (int) Math.floor(Math.min(Math.min(ll[1], ul[1]), Math.min(lr[1], ur[1])) / CHUNK_SIZE);
         int highZ = (int) Math.ceil(Math.max(Math.max(ll[1], ul[1]), Math.max(lr[1], ur[1])) / CHUNK_SIZE);
 
-        for (Edge e : allEdges)
-            relevantChunks(lowX, lowZ, highX, highZ, e);
-        allEdges.clear();
+        EdgeStore edges = new EdgeStore();
+        edges(ways, edges);
+        edges.trim();
 
-        return true;
+        index(region, edges, lowX, lowZ, highX, highZ);
     }
 
-    private void doGson(InputStream is, Region region) throws IOException {
+    //streams through the overpass response, each element is classified as soon as it is read
+    private void doGson(InputStream is, Batch batch) throws IOException {
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8)));
+        Element elem = new Element();
 
-        StringWriter writer = new StringWriter();
-        IOUtils.copy(is, writer, StandardCharsets.UTF_8);
-        String str = writer.toString();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("elements")) {
+                reader.skipValue();
+                continue;
+            }
 
-        Data data = gson.fromJson(str.toString(), Data.class);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                elem.read(reader);
+                batch.element(elem);
+            }
+            reader.endArray();
+        }
+        reader.endObject();
 
-        Map<Long, Element> allWays = new HashMap<Long, Element>();
-        Set<Element> unusedWays = new HashSet<Element>();
-        Set<Long> ground = new HashSet<Long>();
+        batch.finish();
+    }
 
-        for (Element elem : data.elements) {
-            Attributes attributes = Attributes.NONE;
-            if (elem.type == EType.way) {
-                allWays.put(elem.id, elem);
+    private void renderWater(Region region, Set<Long> ground) {
+        if (water.grounding.state(region.coord.x, region.coord.y) == 0) {
+            ground.add(-1L);
+        }
 
-                if (elem.tags == null) {
-                    unusedWays.add(elem);
-                    continue;
-                }
+        region.renderWater(ground);
+    }
 
-                String naturalv = null, highway = null, waterway = null, building = null, istunnel = null, isbridge = null;
+    static boolean isWater(Map<String, String> tags) {
+        String naturalv = tags.get("natural");
+        String waterv = tags.get("water");
+        String wway = tags.get("waterway");
 
-                if (doWater) {
-                    naturalv = elem.tags.get("natural");
-                    waterway = elem.tags.get("waterway");
-                }
+        return waterv != null || (naturalv != null && naturalv.equals("water")) || (wway != null && wway.equals("riverbank"));
+    }
 
-                if (doRoad) {
-                    highway = elem.tags.get("highway");
-                    istunnel = elem.tags.get("tunnel");
-                    // to be implemented
-                    isbridge = elem.tags.get("bridge");
-                }
+    //turns a tagged way into edges, false if it isn't anything we generate on its own
+    private boolean way(Element elem, Batch batch) {
+        Attributes attributes = Attributes.NONE;
 
-                if (doBuildings) {
-                    building = elem.tags.get("building");
-                }
+        String naturalv = null, highway = null, waterway = null, building = null, istunnel = null, isbridge = null;
 
-                if (naturalv != null && naturalv.equals("coastline")) {
-                    waterway(elem, -1, region, null);
-                } else if (highway != null || (waterway != null && (waterway.equals("river") ||
-                        waterway.equals("canal") || waterway.equals("stream"))) || building != null) { //TODO: fewer equals
+        if (doWater) {
+            naturalv = elem.tags.get("natural");
+            waterway = elem.tags.get("waterway");
+        }
 
-                    Type type = Type.ROAD;
+        if (doRoad) {
+            highway = elem.tags.get("highway");
+            istunnel = elem.tags.get("tunnel");
+            // to be implemented
+            isbridge = elem.tags.get("bridge");
+        }
 
-                    if (waterway != null) {
-                        type = Type.STREAM;
-                        if (waterway.equals("river") || waterway.equals("canal"))
-                            type = Type.RIVER;
+        if (doBuildings) {
+            building = elem.tags.get("building");
+        }
 
-                    }
+        if (naturalv != null && naturalv.equals("coastline")) {
+            batch.waterway(elem.geometry, elem.geometryLength, -1);
+            return true;
+        } else if (highway != null || (waterway != null && (waterway.equals("river") ||
+                waterway.equals("canal") || waterway.equals("stream"))) || building != null) { //TODO: fewer equals
 
-                    if (building != null) type = Type.BUILDING;
+            Type type = Type.ROAD;
 
-                    if (istunnel != null && istunnel.equals("yes")) {
+            if (waterway != null) {
+                type = Type.STREAM;
+                if (waterway.equals("river") || waterway.equals("canal"))
+                    type = Type.RIVER;
 
-                        attributes = Attributes.ISTUNNEL;
+            }
 
-                    } else if (isbridge != null && isbridge.equals("yes")) {
+            if (building != null) type = Type.BUILDING;
+
+            if (istunnel != null && istunnel.equals("yes")) {
+
+                attributes = Attributes.ISTUNNEL;
+
+            } else if (isbridge != null && isbridge.equals("yes")) {
+
+                attributes = Attributes.ISBRIDGE;
+
+            } else {
+
+                // totally skip classification if it's a tunnel or bridge. this should make it more efficient.
+                if (highway != null && attributes == Attributes.NONE) {
+                    switch (highway) {
+                        case "motorway":
+                            type = Type.FREEWAY;
+                            break;
+                        case "trunk":
+                            type = Type.LIMITEDACCESS;
+                            break;
+                        case "motorway_link":
+                        case "trunk_link":
+                            type = Type.INTERCHANGE;
+                            break;
+                        case "secondary":
+                            type = Type.SIDE;
+                            break;
+                        case "primary":
+                        case "raceway":
+                            type = Type.MAIN;
+                            break;
+                        case "tertiary":
+                        case "residential":
+                            type = Type.MINOR;
+                            break;
+                        default:
+                            if (highway.equals("primary_link") ||
+                                    highway.equals("secondary_link") ||
+                                    highway.equals("living_street") ||
+                                    highway.equals("bus_guideway") ||
+                                    highway.equals("service") ||
+                                    highway.equals("unclassified"))
+                                type = Type.SIDE;
+                            break;
+                    }
+                }
+            }
+            //get lane number (default is 2)
+            String slanes = elem.tags.get("lanes");
+            String slayer = elem.tags.get("layers");
+            byte lanes = 2;
+            byte layer = 1;
 
-                        attributes = Attributes.ISBRIDGE;
+            if (slayer != null) {
 
-                    } else {
+                try {
 
-                        // totally skip classification if it's a tunnel or bridge. this should make it more efficient.
-                        if (highway != null && attributes == Attributes.NONE) {
-                            switch (highway) {
-                                case "motorway":
-                                    type = Type.FREEWAY;
-                                    break;
-                                case "trunk":
-                                    type = Type.LIMITEDACCESS;
-                                    break;
-                                case "motorway_link":
-                                case "trunk_link":
-                                    type = Type.INTERCHANGE;
-                                    break;
-                                case "secondary":
-                                    type = Type.SIDE;
-                                    break;
-                                case "primary":
-                                case "raceway":
-                                    type = Type.MAIN;
-                                    break;
-                                case "tertiary":
-                                case "residential":
-                                    type = Type.MINOR;
-                                    break;
-                                default:
-                                    if (highway.equals("primary_link") ||
-                                            highway.equals("secondary_link") ||
-                                            highway.equals("living_street") ||
-                                            highway.equals("bus_guideway") ||
-                                            highway.equals("service") ||
-                                            highway.equals("unclassified"))
-                                        type = Type.SIDE;
-                                    break;
-                            }
-                        }
-                    }
-                    //get lane number (default is 2)
-                    String slanes = elem.tags.get("lanes");
-                    String slayer = elem.tags.get("layers");
-                    byte lanes = 2;
-                    byte layer = 1;
+                    layer = Byte.parseByte(slayer);
 
-                    if (slayer != null) {
+                } catch (NumberFormatException e) {
 
-                        try {
+                    // default to layer 1 if bad format
 
-                            layer = Byte.parseByte(slayer);
+                }
 
-                        } catch (NumberFormatException e) {
+            }
 
-                            // default to layer 1 if bad format
+            if (slanes != null) {
 
-                        }
+                try {
 
-                    }
+                    lanes = Byte.parseByte(slanes);
 
-                    if (slanes != null) {
+                } catch (NumberFormatException e) {
 
-                        try {
+                } //default to 2, if bad format
+            }
 
-                            lanes = Byte.parseByte(slanes);
+            //prevent super high # of lanes to prevent ridiculous results (prly a mistake if its this high anyways)
+            if (lanes > 8)
+                lanes = 8;
 
-                        } catch (NumberFormatException e) {
+            // an interchange that doesn't have any lane tag should be defaulted to 2 lanes
+            if (lanes < 2 && type == Type.INTERCHANGE) {
+                lanes = 2;
+            }
 
-                        } //default to 2, if bad format
-                    }
+            // upgrade road type if many lanes (and the road was important enough to include a lanes tag)
+            if (lanes > 2 && type == Type.MINOR)
+                type = Type.MAIN;
 
-                    //prevent super high # of lanes to prevent ridiculous results (prly a mistake if its this high anyways)
-                    if (lanes > 8)
-                        lanes = 8;
+            batch.add(elem.geometry, elem.geometryLength, type, lanes, attributes, layer);
+            return true;
+        }
+        return false;
+    }
 
-                    // an interchange that doesn't have any lane tag should be defaulted to 2 lanes
-                    if (lanes < 2 && type == Type.INTERCHANGE) {
-                        lanes = 2;
+    //projects the ways of a region into edges
+    void edges(Ways ways, EdgeStore edges) {
+        for (int w = 0; w < ways.count; w++) {
+            double[] lastProj = null;
+            for (int i = w == 0 ? 0 : ways.ends[w - 1]; i < ways.ends[w]; i += 2) {
+                if (ways.coords[i] != ways.coords[i]) lastProj = null;
+                else {
+                    double[] proj = projection.fromGeo(ways.coords[i], ways.coords[i + 1]);
+
+                    if (lastProj != null) { //register as a road edge
+                        edges.add(lastProj[0], lastProj[1], proj[0], proj[1], ways.types[w], ways.lanes[w], ways.attributes[w], ways.layers[w]);
                     }
 
-                    // upgrade road type if many lanes (and the road was important enough to include a lanes tag)
-                    if (lanes > 2 && type == Type.MINOR)
-                        type = Type.MAIN;
-
-                    addWay(elem, type, lanes, region, attributes, layer);
-                } else unusedWays.add(elem);
-            } else if (elem.type == EType.relation && elem.members != null && elem.tags != null) {
-
-                if(doWater) {
-                    String naturalv = elem.tags.get("natural");
-                    String waterv = elem.tags.get("water");
-                    String wway = elem.tags.get("waterway");
-
-                    if (waterv != null || (naturalv != null && naturalv.equals("water")) || (wway != null && wway.equals("riverbank"))) {
-                        for (Member member : elem.members) {
-                            if (member.type == EType.way) {
-                                Element way = allWays.get(member.ref);
-                                if (way != null) {
-                                    waterway(way, elem.id + 3600000000L, region, null);
-                                    unusedWays.remove(way);
-                                }
-                            }
-                        }
-                        continue;
-                    }
+                    lastProj = proj;
                 }
-                if(doBuildings && elem.tags.get("building")!=null) {
-                    for (Member member : elem.members) {
-                        if (member.type == EType.way) {
-                            Element way = allWays.get(member.ref);
-                            if (way != null) {
-                                addWay(way, Type.BUILDING, (byte) 1, region, Attributes.NONE, (byte) 0);
-                                unusedWays.remove(way);
-                            }
-                        }
-                    }
-                }
-
-            } else if (elem.type == EType.area) {
-                ground.add(elem.id);
             }
         }
+    }
 
-        if (doWater) {
-
-            for (Element way : unusedWays) {
-                if (way.tags != null) {
-                    String naturalv = way.tags.get("natural");
-                    String waterv = way.tags.get("water");
-                    String wway = way.tags.get("waterway");
-
-                    if (waterv != null || (naturalv != null && naturalv.equals("water")) || (wway != null && wway.equals("riverbank")))
-                        waterway(way, way.id + 2400000000L, region, null);
-                }
-            }
+    //regions are saved separately for each combination of features, since overpass is only asked for the enabled ones
+    private String storeKey(Coord coord) {
+        String features = (doRoad ? "r" : "") + (doWater ? "w" : "") + (doBuildings ? "b" : "");
+        return (features.isEmpty() ? "none" : features) + "/" + coord.x + "/" + coord.y;
+    }
 
-            if (water.grounding.state(region.coord.x, region.coord.y) == 0) {
-                ground.add(-1L);
+    void waterway(double[] geometry, int length, long id, Region region) {
+        for (int i = 2; i < length; i += 2) {
+            if (geometry[i] == geometry[i] && geometry[i - 2] == geometry[i - 2]) {
+                region.addWaterEdge(geometry[i - 2], geometry[i - 1], geometry[i], geometry[i + 1], id);
             }
-
-            region.renderWater(ground);
         }
     }
 
-    void addWay(Element elem, Type type, byte lanes, Region region, Attributes attributes, byte layer) {
-        double[] lastProj = null;
-        if(elem.geometry != null)
-        for (Geometry geom : elem.geometry) {
-            if (geom == null) lastProj = null;
-            else {
-                double[] proj = projection.fromGeo(geom.lon, geom.lat);
+    //builds the region's index from chunks to the edges crossing them
+    //cells are numbered (x-lowX)*height + (z-lowZ), only the ones with edges are kept, sorted so they can be binary searched
+    private void index(Region region, EdgeStore edges, int lowX, int lowZ, int highX, int highZ) {
+        int height = Math.max(1, highZ - lowZ);
+
+        //every (cell, edge) pair packed into a long, so sorting groups the edges by cell
+        long[][] pairs = {new long[Math.max(16, edges.count * 2)]};
+        int[] numPairs = {0};
+
+        for (int i = 0; i < edges.count; i++) {
+            long edge = i;
+            relevantChunks(lowX, lowZ, highX, highZ, edges, i, (x, z) -> {
+                if (numPairs[0] == pairs[0].length)
+                    pairs[0] = Arrays.copyOf(pairs[0], numPairs[0] * 2);
+                pairs[0][numPairs[0]++] = ((long) ((x - lowX) * height + (z - lowZ)) << 32) | edge;
+            });
+        }
 
-                if (lastProj != null) { //register as a road edge
-                    allEdges.add(new Edge(lastProj[0], lastProj[1], proj[0], proj[1], type, lanes, region, attributes, layer));
-                }
+        long[] sorted = pairs[0];
+        int n = numPairs[0];
+        Arrays.sort(sorted, 0, n);
+
+        int numCells = 0;
+        for (int i = 0; i < n; i++)
+            if (i == 0 || (sorted[i] >>> 32) != (sorted[i - 1] >>> 32))
+                numCells++;
+
+        int[] cells = new int[numCells];
+        int[] cellStarts = new int[numCells + 1];
+        int[] cellEdges = new int[n];
 
-                lastProj = proj;
+        int c = -1;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || (sorted[i] >>> 32) != (sorted[i - 1] >>> 32)) {
+                cells[++c] = (int) (sorted[i] >>> 32);
+                cellStarts[c] = i;
             }
+            cellEdges[i] = (int) sorted[i];
         }
+        cellStarts[numCells] = n;
+
+        region.edges = edges;
+        region.lowX = lowX;
+        region.lowZ = lowZ;
+        region.highX = highX;
+        region.highZ = highZ;
+        region.cells = cells;
+        region.cellStarts = cellStarts;
+        region.cellEdges = cellEdges;
     }
 
-    Geometry waterway(Element way, long id, Region region, Geometry last) {
-        if (way.geometry != null)
-            for (Geometry geom : way.geometry) {
-                if (geom != null && last != null) {
-                    region.addWaterEdge(last.lon, last.lat, geom.lon, geom.lat, id);
-                }
-                last = geom;
-            }
-
-        return last;
+    private interface CellConsumer {
+        void accept(int x, int z);
     }
 
-    private void relevantChunks(int lowX, int lowZ, int highX, int highZ, Edge edge) {
-        Coord start = new Coord((int) Math.floor(edge.slon / CHUNK_SIZE), (int) Math.floor(edge.slat / CHUNK_SIZE));
-        Coord end = new Coord((int) Math.floor(edge.elon / CHUNK_SIZE), (int) Math.floor(edge.elat / CHUNK_SIZE));
+    private void relevantChunks(int lowX, int lowZ, int highX, int highZ, EdgeStore edges, int i, CellConsumer consumer) {
+        int startX = (int) Math.floor(edges.slon[i] / CHUNK_SIZE);
+        int endX = (int) Math.floor(edges.elon[i] / CHUNK_SIZE);
 
-        double startx = edge.slon;
-        double endx = edge.elon;
+        double startx = edges.slon[i];
+        double endx = edges.elon[i];
+        double slope = edges.slope[i];
+        double offset = edges.offset[i];
 
         if (startx > endx) {
-            Coord tmp = start;
-            start = end;
-            end = tmp;
+            int tmp = startX;
+            startX = endX;
+            endX = tmp;
             startx = endx;
-            endx = edge.slon;
+            endx = edges.slon[i];
         }
 
-        highX = Math.min(highX, end.x + 1);
-        for (int x = Math.max(lowX, start.x); x < highX; x++) {
+        highX = Math.min(highX, endX + 1);
+        for (int x = Math.max(lowX, startX); x < highX; x++) {
             double X = x * CHUNK_SIZE;
-            int from = (int) Math.floor((edge.slope * Math.max(X, startx) + edge.offset) / CHUNK_SIZE);
-            int to = (int) Math.floor((edge.slope * Math.min(X + CHUNK_SIZE, endx) + edge.offset) / CHUNK_SIZE);
+            int from = (int) Math.floor((slope * Math.max(X, startx) + offset) / CHUNK_SIZE);
+            int to = (int) Math.floor((slope * Math.min(X + CHUNK_SIZE, endx) + offset) / CHUNK_SIZE);
 
             if (from > to) {
                 int tmp = from;
@@ -461,48 +741,7 @@ public class OpenStreetMaps {
             }
 
             for (int y = Math.max(from, lowZ); y <= to && y < highZ; y++) {
-                assoiateWithChunk(new Coord(x, y), edge);
-            }
-        }
-    }
-
-    private void assoiateWithChunk(Coord c, Edge edge) {
-        Set<Edge> list = chunks.get(c);
-        if (list == null) {
-            list = new HashSet<Edge>();
-            chunks.put(c, list);
-        }
-        list.add(edge);
-    }
-
-    //TODO: this algorithm is untested and may have some memory leak issues and also strait up copies code from earlier
-    private void removeRegion(Region delete) {
-        double X = delete.coord.x * TILE_SIZE;
-        double Y = delete.coord.y * TILE_SIZE;
-
-        double[] ll = projection.fromGeo(X, Y);
-        double[] lr = projection.fromGeo(X + TILE_SIZE, Y);
-        double[] ur = projection.fromGeo(X + TILE_SIZE, Y + TILE_SIZE);
-        double[] ul = projection.fromGeo(X, Y + TILE_SIZE);
-
-        //estimate bounds of region in terms of chunks
-        int lowX = (int) Math.floor(Math.min(Math.min(ll[0], ul[0]), Math.min(lr[0], ur[0])) / CHUNK_SIZE);
-        int highX = (int) Math.ceil(Math.max(Math.max(ll[0], ul[0]), Math.max(lr[0], ur[0])) / CHUNK_SIZE);
-        int lowZ = (int) Math.floor(Math.min(Math.min(ll[1], ul[1]), Math.min(lr[1], ur[1])) / CHUNK_SIZE);
-        int highZ = (int) Math.ceil(Math.max(Math.max(ll[1], ul[1]), Math.max(lr[1], ur[1])) / CHUNK_SIZE);
-
-        for (int x = lowX; x < highX; x++) {
-            for (int z = lowZ; z < highZ; z++) {
-                Set<Edge> edges = chunks.get(new Coord(x, z));
-                if (edges != null) {
-                    Iterator<Edge> it = edges.iterator();
-                    while (it.hasNext())
-                        if (it.next().region.equals(delete))
-                            it.remove();
-
-                    if (edges.size() <= 0)
-                        chunks.remove(new Coord(x, z));
-                }
+                consumer.accept(x, y);
             }
         }
     }
@@ -512,7 +751,7 @@ public class OpenStreetMaps {
         public int x;
         public int y;
 
-        private Coord(int x, int y) {
+        Coord(int x, int y) {
             this.x = x;
             this.y = y;
         }
@@ -531,7 +770,12 @@ public class OpenStreetMaps {
         }
     }
 
-    public static class Edge {
+    //reads the edges of one chunk straight out of the regions' edge stores without allocating anything
+    //the fields hold the current edge after each successful next()
+    public static class EdgeCursor {
+        private static final Type[] TYPES = Type.values();
+        private static final Attributes[] ATTRIBUTES = Attributes.values();
+
         public Type type;
         public double slat;
         public double slon;
@@ -541,85 +785,338 @@ public class OpenStreetMaps {
         public byte layer_number;
         public double slope;
         public double offset;
-
         public byte lanes;
 
-        Region region;
+        public boolean loading; //from loadedStructures, some region isn't there yet so there are no edges to go through
+
+        private Region[] regions = new Region[4];
+        private int x, z;
+        private int region; //index into regions
+        private int cell;
+        private int pos, end;
 
-        private double squareLength() {
-            double dlat = elat - slat;
-            double dlon = elon - slon;
-            return dlat * dlat + dlon * dlon;
+        //go back to before the first edge
+        public void reset() {
+            region = loading ? regions.length : -1;
+            pos = end = 0;
         }
 
-        private Edge(double slon, double slat, double elon, double elat, Type type, byte lanes, Region region, Attributes att, byte ly) {
-            //slope must not be infinity, slight inaccuracy shouldn't even be noticible unless you go looking for it
-            double dif = elon - slon;
-            if (-NOTHING <= dif && dif <= NOTHING) {
-                if (dif < 0) {
-                    elon -= NOTHING;
-                } else {
-                    elon += NOTHING;
+        public boolean next() {
+            while (true) {
+                while (pos < end) {
+                    EdgeStore edges = regions[region].edges;
+                    int i = regions[region].cellEdges[pos++];
+
+                    if (!duplicate(edges, i)) {
+                        type = TYPES[edges.type[i]];
+                        slat = edges.slat[i];
+                        slon = edges.slon[i];
+                        elat = edges.elat[i];
+                        elon = edges.elon[i];
+                        attribute = ATTRIBUTES[edges.attribute[i]];
+                        layer_number = edges.layer[i];
+                        slope = edges.slope[i];
+                        offset = edges.offset[i];
+                        lanes = edges.lanes[i];
+                        return true;
+                    }
                 }
+
+                //on to the next region that hasn't been read yet
+                do {
+                    if (++region >= regions.length)
+                        return false;
+                } while (seen(region) || (cell = regions[region].findCell(x, z)) < 0);
+
+                pos = regions[region].cellStarts[cell];
+                end = regions[region].cellStarts[cell + 1];
             }
+        }
 
-            this.slat = slat;
-            this.slon = slon;
-            this.elat = elat;
-            this.elon = elon;
-            this.type = type;
-            this.attribute = att;
-            this.lanes = lanes;
-            this.region = region;
-            this.layer_number = ly;
+        private boolean seen(int r) {
+            for (int o = 0; o < r; o++)
+                if (regions[o] == regions[r])
+                    return true;
+            return false;
+        }
 
-            slope = (elat - slat) / (elon - slon);
-            offset = slat - slope * slon;
+        //segments crossing a region border are in both regions, only use them from the first one
+        private boolean duplicate(EdgeStore edges, int i) {
+            for (int o = 0; o < region; o++) {
+                Region other = regions[o];
+                int c;
+                if (seen(o) || (c = other.findCell(x, z)) < 0)
+                    continue;
+
+                for (int p = other.cellStarts[c]; p < other.cellStarts[c + 1]; p++)
+                    if (edges.sameSegment(i, other.edges, other.cellEdges[p]))
+                        return true;
+            }
+            return false;
         }
+    }
 
-        public int hashCode() {
-            return (int) ((slon * 79399) + (slat * 100000) + (elat * 13467) + (elon * 103466));
+    public static enum EType {
+        invalid, node, way, relation, area, count
+    }
+
+    //the ways of a region that turn into edges, kept in geographic coordinates so they can be saved and projected later
+    //geometry is packed lon,lat pairs with NaN pairs where overpass cut the way at the bounding box
+    static class Ways {
+        int count;
+        byte[] types = new byte[64];
+        byte[] lanes = new byte[64];
+        byte[] attributes = new byte[64];
+        byte[] layers = new byte[64];
+        int[] ends = new int[64]; //end of each way in coords
+        double[] coords = new double[1024];
+        int length;
+
+        void add(double[] geometry, int len, Type type, byte lane, Attributes attribute, byte layer) {
+            add((byte) type.ordinal(), lane, (byte) attribute.ordinal(), layer);
+            addCoords(geometry, len);
         }
 
-        public boolean equals(Object o) {
-            Edge e = (Edge) o;
-            return e.slat == slat && e.slon == slon && e.elat == elat && e.elon == e.elon;
+        void add(byte type, byte lane, byte attribute, byte layer) {
+            if (count == ends.length) {
+                types = Arrays.copyOf(types, count * 2);
+                lanes = Arrays.copyOf(lanes, count * 2);
+                attributes = Arrays.copyOf(attributes, count * 2);
+                layers = Arrays.copyOf(layers, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+
+            types[count] = type;
+            lanes[count] = lane;
+            attributes[count] = attribute;
+            layers[count] = layer;
+            ends[count] = length;
+            count++;
         }
 
-        public String toString() {
-            return "(" + slat + ", " + slon + "," + elat + "," + elon + ")";
+        void addCoords(double[] geometry, int len) {
+            if (length + len > coords.length)
+                coords = Arrays.copyOf(coords, Math.max(coords.length * 2, length + len));
+            System.arraycopy(geometry, 0, coords, length, len);
+            length += len;
+            ends[count - 1] = length;
         }
     }
 
-    public static enum EType {
-        invalid, node, way, relation, area
+    //the regions one overpass query is for, every way is handed to the regions it passes through
+    //cut down to what overpass would have returned had the region been asked for on its own
+    //only the geometries of water ways are kept around, until the end when it is known that nothing else drew them
+    private class Batch {
+        Region[] regions;
+        Ways[] ways;
+        private double[] clipped = new double[256];
+
+        private Map<Long, double[]> waterWays = new LinkedHashMap<Long, double[]>(); //ways tagged as water that nothing else used
+        private List<Set<Long>> groundAreas = new ArrayList<Set<Long>>(); //water areas around the corner of each region, in order
+        private Set<Long> ground = new HashSet<Long>();
+
+        Batch(List<Region> regions) {
+            this.regions = regions.toArray(new Region[regions.size()]);
+            ways = new Ways[this.regions.length];
+            for (int i = 0; i < ways.length; i++)
+                ways[i] = new Ways();
+        }
+
+        //relations aren't drawn: by the time they come every member way has been sent again without its geometry,
+        //so there is never anything to draw them with (the extract sends them the same way)
+        void element(Element elem) {
+            if (elem.type == EType.way) {
+                //the second out statement sends every way again without geometry, that copy has nothing to draw
+                if (elem.geometryLength == 0)
+                    return;
+
+                if (elem.hasTags && !way(elem, this) && doWater && isWater(elem.tags))
+                    waterWays.put(elem.id, Arrays.copyOf(elem.geometry, elem.geometryLength));
+            } else if (elem.type == EType.area) {
+                ground.add(elem.id);
+            } else if (elem.type == EType.count) {
+                groundAreas.add(ground);
+                ground = new HashSet<Long>();
+            }
+        }
+
+        //called after the last element
+        void finish() {
+            if (doWater) {
+
+                for (Map.Entry<Long, double[]> e : waterWays.entrySet())
+                    waterway(e.getValue(), e.getValue().length, e.getKey() + 2400000000L);
+
+                //the water areas come after all the ways, so the regions can only be rendered once they are all in
+                groundAreas.add(ground);
+                for (int i = 0; i < regions.length; i++)
+                    renderWater(regions[i], i < groundAreas.size() ? groundAreas.get(i) : new HashSet<Long>());
+            }
+        }
+
+        void add(double[] geometry, int len, Type type, byte lane, Attributes attribute, byte layer) {
+            for (int r = 0; r < regions.length; r++) {
+                double[] geom = clip(geometry, len, regions[r]);
+                if (geom != null)
+                    ways[r].add(geom, len, type, lane, attribute, layer);
+            }
+        }
+
+        void waterway(double[] geometry, int len, long id) {
+            for (int r = 0; r < regions.length; r++) {
+                double[] geom = clip(geometry, len, regions[r]);
+                if (geom != null)
+                    OpenStreetMaps.this.waterway(geom, len, id, regions[r]);
+            }
+        }
+
+        //null if none of the way is in the region, the same geometry if it is the only region overpass was asked for
+        private double[] clip(double[] geometry, int len, Region region) {
+            if (regions.length == 1)
+                return geometry;
+
+            if (clipped.length < len)
+                clipped = new double[Math.max(len, clipped.length * 2)];
+            return OpenStreetMaps.clip(geometry, len, region.west, region.south, clipped) ? clipped : null;
+        }
     }
 
-    public static class Member {
-        EType type;
-        long ref;
-        String role;
+    //cuts a way down to what overpass returns for the region with this south west corner:
+    //points inside it and the ones right next to them, the rest are replaced with NaN gaps
+    //false if none of the way is in the region
+    static boolean clip(double[] geometry, int len, double west, double south, double[] out) {
+        boolean any = false;
+        for (int i = 0; i < len; i += 2) {
+            boolean keep = inside(geometry, len, i, west, south) || inside(geometry, len, i - 2, west, south) || inside(geometry, len, i + 2, west, south);
+            out[i] = keep ? geometry[i] : Double.NaN;
+            out[i + 1] = keep ? geometry[i + 1] : Double.NaN;
+            any |= keep;
+        }
+        return any;
     }
 
-    public static class Geometry {
-        double lat;
-        double lon;
+    private static boolean inside(double[] geometry, int len, int i, double west, double south) {
+        if (i < 0 || i >= len)
+            return false;
+        double lon = geometry[i] - west, lat = geometry[i + 1] - south;
+        return lon >= 0 && lon <= TILE_SIZE && lat >= 0 && lat <= TILE_SIZE; //NaN is never inside
     }
 
-    public static class Element {
+    //the element currently being read from the overpass response (or an extract), reused for every element
+    static class Element {
         EType type;
         long id;
-        Map<String, String> tags;
-        long[] nodes;
-        Member[] members;
-        Geometry[] geometry;
-    }
+        Map<String, String> tags = new HashMap<String, String>();
+        boolean hasTags;
+        long[] members = new long[16]; //only the way members
+        int numMembers;
+        boolean hasMembers;
+        double[] geometry = new double[256];
+        int geometryLength;
+
+        void clear() {
+            type = EType.invalid;
+            id = 0;
+            tags.clear();
+            hasTags = hasMembers = false;
+            numMembers = geometryLength = 0;
+        }
+
+        void read(JsonReader reader) throws IOException {
+            clear();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "type":
+                        try {
+                            type = EType.valueOf(reader.nextString());
+                        } catch (IllegalArgumentException e) {
+                            type = EType.invalid;
+                        }
+                        break;
+                    case "id":
+                        id = reader.nextLong();
+                        break;
+                    case "tags":
+                        hasTags = true;
+                        reader.beginObject();
+                        while (reader.hasNext())
+                            tags.put(reader.nextName(), reader.nextString());
+                        reader.endObject();
+                        break;
+                    case "members":
+                        hasMembers = true;
+                        reader.beginArray();
+                        while (reader.hasNext())
+                            readMember(reader);
+                        reader.endArray();
+                        break;
+                    case "geometry":
+                        reader.beginArray();
+                        while (reader.hasNext())
+                            readPoint(reader);
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
 
-    public static class Data {
-        float version;
-        String generator;
-        Map<String, String> osm3s;
-        List<Element> elements;
+        private void readMember(JsonReader reader) throws IOException {
+            boolean isWay = false;
+            long ref = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("type"))
+                    isWay = reader.nextString().equals("way");
+                else if (name.equals("ref"))
+                    ref = reader.nextLong();
+                else reader.skipValue();
+            }
+            reader.endObject();
+
+            if (isWay)
+                addMember(ref);
+        }
+
+        void addMember(long ref) {
+            if (numMembers == members.length)
+                members = Arrays.copyOf(members, numMembers * 2);
+            members[numMembers++] = ref;
+        }
+
+        private void readPoint(JsonReader reader) throws IOException {
+            double lon = Double.NaN, lat = Double.NaN;
+
+            if (reader.peek() == JsonToken.NULL)
+                reader.nextNull();
+            else {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("lon"))
+                        lon = reader.nextDouble();
+                    else if (name.equals("lat"))
+                        lat = reader.nextDouble();
+                    else reader.skipValue();
+                }
+                reader.endObject();
+            }
+
+            addPoint(lon, lat);
+        }
+
+        void addPoint(double lon, double lat) {
+            if (geometryLength + 2 > geometry.length)
+                geometry = Arrays.copyOf(geometry, geometry.length * 2);
+            geometry[geometryLength++] = lon;
+            geometry[geometryLength++] = lat;
+        }
     }
 
     public static void main(String[] args) {
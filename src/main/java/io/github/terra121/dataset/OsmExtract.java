@@ -0,0 +1,618 @@
+package io.github.terra121.dataset;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import io.github.terra121.TerraConfig;
+import io.github.terra121.TerraMod;
+
+//local alternative to overpass, regions are read from a .osm.pbf extract instead of being downloaded
+//the extract is split up into regions once and saved as an index file, which is memory mapped and read from after that
+//(through MappedFile, so it can be larger than 2GB)
+//each region holds the elements overpass would have returned for it, so OpenStreetMaps classifies them exactly the same way
+public class OsmExtract {
+	private static final int MAGIC = 0x4F313231; //"O121"
+	private static final int VERSION = 1;
+
+	private static final double PRECISION = 1e7; //osm coordinates have 7 decimal places
+	private static final int GAP = Integer.MIN_VALUE;
+
+	private static final int HEADER = 28;
+	private static final int ENTRY = 20; //region key, offset, length
+
+	//the only tags OpenStreetMaps looks at, the rest aren't worth saving
+	private static final String[] KEYS = {"highway", "waterway", "natural", "water", "building", "tunnel", "bridge", "lanes", "layers"};
+
+	private static final OpenStreetMaps.EType[] TYPES = OpenStreetMaps.EType.values();
+
+	private static OsmExtract instance;
+	private static IOException failure; //so a broken extract isn't indexed again for every region
+
+	private final MappedFile index;
+	private final int count;
+
+	OsmExtract(File file) throws IOException {
+		index = new MappedFile(file);
+		if(index.size() < HEADER || index.getInt(0) != MAGIC || index.getInt(4) != VERSION)
+			throw new IOException(file + " is not an OSM extract index");
+		count = index.getInt(24);
+	}
+
+	public static boolean enabled() {
+		return !TerraConfig.osmExtract.isEmpty();
+	}
+
+	//shared instance for the extract in TerraConfig, the first call indexes it if that hasn't been done yet
+	public static synchronized OsmExtract get() throws IOException {
+		if(failure != null)
+			throw failure;
+
+		if(instance == null) {
+			try {
+				File pbf = new File(TerraConfig.osmExtract);
+				File file = new File(new File(TerraConfig.cacheDirectory, "extracts"), pbf.getName() + ".index");
+
+				if(!upToDate(file, pbf)) {
+					file.getParentFile().mkdirs();
+					File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+					try {
+						build(pbf, tmp);
+						Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} finally {
+						tmp.delete();
+					}
+				}
+
+				instance = new OsmExtract(file);
+			} catch(IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+		return instance;
+	}
+
+	//the index remembers which version of the extract it was built from
+	private static boolean upToDate(File file, File pbf) throws IOException {
+		if(!pbf.isFile())
+			throw new IOException("OSM extract " + pbf + " doesn't exist");
+		if(!file.isFile() || file.length() < HEADER)
+			return false;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return raf.readInt() == MAGIC && raf.readInt() == VERSION
+					&& raf.readLong() == pbf.length() && raf.readLong() == pbf.lastModified();
+		}
+	}
+
+	private static long key(int x, int y) {
+		return ((long)x << 32) | (y & 0xffffffffL);
+	}
+
+	//hands every element of the region to the consumer, in the order overpass would have: ways with their geometry,
+	//the same ways again without it and the relations (the second out statement), then the water areas around the region's corner
+	//regions the extract has nothing in don't produce anything
+	public void read(OpenStreetMaps.Coord coord, Consumer<OpenStreetMaps.Element> consumer) {
+		long key = key(coord.x, coord.y);
+
+		int min = 0, max = count - 1, entry = -1;
+		while(min <= max) {
+			int mid = (min + max) >>> 1;
+			long k = index.getLong(HEADER + (long)mid*ENTRY);
+			if(k < key) min = mid + 1;
+			else if(k > key) max = mid - 1;
+			else {
+				entry = mid;
+				break;
+			}
+		}
+
+		if(entry < 0)
+			return;
+
+		//absolute reads only, so any number of threads can share the mapping
+		long pos = index.getLong(HEADER + (long)entry*ENTRY + 8);
+		OpenStreetMaps.Element elem = new OpenStreetMaps.Element();
+
+		int elements = index.getInt(pos); pos += 4;
+		long start = pos;
+		int relations = elements;
+
+		//the ways come first, each is sent with its geometry and then again without it
+		for(int pass=0; pass<2; pass++) {
+			pos = start;
+			for(int e=0; e<elements; e++) {
+				if(TYPES[index.get(pos)] != OpenStreetMaps.EType.way) {
+					relations = e;
+					break;
+				}
+				pos = element(pos, elem, pass == 0);
+				consumer.accept(elem);
+			}
+		}
+
+		for(int e=relations; e<elements; e++) {
+			pos = element(pos, elem, true);
+			consumer.accept(elem);
+		}
+
+		int ground = index.getInt(pos); pos += 4;
+		for(int i=0; i<ground; i++) {
+			elem.clear();
+			elem.type = OpenStreetMaps.EType.area;
+			elem.id = index.getLong(pos); pos += 8;
+			consumer.accept(elem);
+		}
+
+		elem.clear();
+		elem.type = OpenStreetMaps.EType.count;
+		consumer.accept(elem);
+	}
+
+	//reads the element at pos into elem, returns where the next one starts
+	private long element(long pos, OpenStreetMaps.Element elem, boolean geometry) {
+		elem.clear();
+		elem.type = TYPES[index.get(pos)]; pos += 1;
+		elem.id = index.getLong(pos); pos += 8;
+
+		int tags = index.get(pos); pos += 1;
+		for(int t=0; t<tags; t++) {
+			String k = KEYS[index.get(pos)]; pos += 1;
+			int len = index.getShort(pos) & 0xffff; pos += 2;
+			byte[] value = new byte[len];
+			try {
+				index.get(pos, value, 0, len);
+			} catch(IOException e) {
+				throw new IllegalStateException("Broken OSM extract index", e); //only if the file was cut short under us
+			}
+			pos += len;
+			elem.tags.put(k, new String(value, StandardCharsets.UTF_8));
+		}
+		elem.hasTags = tags > 0;
+
+		int points = index.getInt(pos); pos += 4;
+		for(int i=0; i<points && geometry; i++) {
+			int lon = index.getInt(pos + i*8), lat = index.getInt(pos + i*8 + 4);
+			elem.addPoint(lon==GAP?Double.NaN:lon/PRECISION, lat==GAP?Double.NaN:lat/PRECISION);
+		}
+		pos += points*8L;
+
+		int members = index.getInt(pos); pos += 4;
+		for(int i=0; i<members; i++) {
+			elem.addMember(index.getLong(pos));
+			pos += 8;
+		}
+		elem.hasMembers = members > 0;
+		return pos;
+	}
+
+	//splits the extract up into regions, this reads it four times so only what is needed has to be kept in memory:
+	//the interesting relations first, then the nodes the interesting ways need, the coordinates of those nodes,
+	//and finally the ways again, which are cut up into regions as they are read
+	//the cut up elements are spooled to a temporary file as they come and only gathered into regions at the end,
+	//what stays in memory is 24 bytes for every node of those ways, the geometry of the water relations' members and 8 bytes per element per region
+	//so a country sized extract needs a gigabyte or two, anything larger should be cut down to the area that is played in first
+	static void build(File pbf, File out) throws IOException {
+		File tmp = File.createTempFile(out.getName(), ".spool", out.getAbsoluteFile().getParentFile());
+		try (Spool spool = new Spool(tmp)) {
+			build(pbf, out, spool);
+		} finally {
+			if(!tmp.delete())
+				tmp.deleteOnExit(); //still mapped on windows
+		}
+	}
+
+	private static void build(File pbf, File out, Spool spool) throws IOException {
+		TerraMod.LOGGER.info("Indexing OSM extract " + pbf + ", this only happens once but can take a while");
+		PbfReader reader = new PbfReader(pbf);
+
+		List<Relation> relations = new ArrayList<Relation>();
+		Longs memberIds = new Longs();
+		reader.read(new PbfReader.Handler() {
+			public void relation(long id, Map<String, String> tags, long[] members, int numMembers) {
+				if(OpenStreetMaps.isWater(tags) || tags.get("building") != null) {
+					relations.add(new Relation(id, filter(tags), Arrays.copyOf(members, numMembers)));
+					for(int i=0; i<numMembers; i++)
+						memberIds.add(members[i]);
+				}
+			}
+		}, false, false, true);
+		memberIds.sort();
+
+		Longs nodeIds = new Longs();
+		reader.read(new PbfReader.Handler() {
+			public void way(long id, Map<String, String> tags, long[] refs, int numRefs) {
+				if(wanted(id, tags, memberIds))
+					for(int i=0; i<numRefs; i++)
+						nodeIds.add(refs[i]);
+			}
+		}, false, true, false);
+		nodeIds.sort();
+
+		//nodes outside of the extract stay NaN, which leaves a gap in their ways just like the edge of an overpass bounding box
+		double[] nodeCoords = new double[nodeIds.size*2];
+		Arrays.fill(nodeCoords, Double.NaN);
+		reader.read(new PbfReader.Handler() {
+			public void node(long id, double lon, double lat) {
+				int i = nodeIds.indexOf(id);
+				if(i >= 0) {
+					nodeCoords[i*2] = lon;
+					nodeCoords[i*2 + 1] = lat;
+				}
+			}
+		}, true, false, false);
+
+		Map<Long, RegionOut> regions = new HashMap<Long, RegionOut>();
+		Map<Long, Way> members = new HashMap<Long, Way>(); //only the relation members are kept once they are cut up
+		int[] ways = new int[1];
+
+		reader.read(new PbfReader.Handler() {
+			double[] clipped = new double[256];
+
+			public void way(long id, Map<String, String> tags, long[] refs, int numRefs) {
+				if(!wanted(id, tags, memberIds))
+					return;
+				ways[0]++;
+
+				Map<String, String> filtered = filter(tags);
+				double[] geometry = new double[numRefs*2];
+				for(int i=0; i<numRefs; i++) {
+					int n = nodeIds.indexOf(refs[i]);
+					geometry[i*2] = nodeCoords[n*2];
+					geometry[i*2 + 1] = nodeCoords[n*2 + 1];
+				}
+
+				Way way = null;
+				if(memberIds.contains(id))
+					members.put(id, way = new Way(geometry));
+
+				if(clipped.length < geometry.length)
+					clipped = new double[geometry.length*2];
+
+				int[] bounds = bounds(geometry);
+				if(bounds == null)
+					return;
+
+				//a way ends up in every region one of its points is in, cut down to that region
+				for(int x=bounds[0]; x<=bounds[2]; x++) {
+					for(int y=bounds[1]; y<=bounds[3]; y++) {
+						if(!OpenStreetMaps.clip(geometry, geometry.length, x*OpenStreetMaps.TILE_SIZE, y*OpenStreetMaps.TILE_SIZE, clipped))
+							continue;
+
+						region(regions, x, y).records.add(spool.element(OpenStreetMaps.EType.way, id, filtered, clipped, geometry.length, null));
+						if(way != null)
+							way.regions.add(key(x, y));
+					}
+				}
+
+				//water areas containing the south west corner of regions, what is_in asks overpass for
+				if(waterArea(filtered) && numRefs > 3 && refs[0] == refs[numRefs - 1])
+					ground(regions, id + 2400000000L, new double[][] {geometry});
+			}
+		}, false, true, false);
+
+		TerraMod.LOGGER.info("Read " + ways[0] + " ways and " + relations.size() + " relations from " + pbf);
+
+		//relations go in every region one of their members went in, after all the ways like overpass does it
+		for(Relation relation: relations) {
+			Set<Long> in = new LinkedHashSet<Long>();
+			for(long member: relation.members) {
+				Way way = members.get(member);
+				if(way != null)
+					in.addAll(way.regions);
+			}
+
+			if(in.isEmpty())
+				continue;
+
+			long record = spool.element(OpenStreetMaps.EType.relation, relation.id, relation.tags, null, 0, relation.members);
+			for(long key: in)
+				region(regions, (int)(key >> 32), (int)key).records.add(record);
+		}
+
+		for(Relation relation: relations) {
+			if(waterArea(relation.tags)) {
+				List<double[]> outlines = new ArrayList<double[]>();
+				for(long member: relation.members) {
+					Way way = members.get(member);
+					if(way != null)
+						outlines.add(way.geometry);
+				}
+				ground(regions, relation.id + 3600000000L, outlines.toArray(new double[outlines.size()][]));
+			}
+		}
+
+		write(pbf, out, regions, spool);
+		TerraMod.LOGGER.info("Indexed " + regions.size() + " OSM regions from " + pbf);
+	}
+
+	//ways OpenStreetMaps could do something with, or that a relation it could needs
+	private static boolean wanted(long id, Map<String, String> tags, Longs memberIds) {
+		return tags.containsKey("highway") || tags.containsKey("waterway") || tags.containsKey("building")
+				|| tags.containsKey("natural") || tags.containsKey("water") || memberIds.contains(id);
+	}
+
+	//what overpass' area._[~"natural|waterway"~"water|riverbank"] matches
+	private static boolean waterArea(Map<String, String> tags) {
+		String natural = tags.get("natural"), waterway = tags.get("waterway");
+		return (natural != null && (natural.contains("water") || natural.contains("riverbank")))
+				|| (waterway != null && (waterway.contains("water") || waterway.contains("riverbank")));
+	}
+
+	//regions whose corner is inside the outlines, by counting the edges crossed going east from the corner
+	private static void ground(Map<Long, RegionOut> regions, long id, double[][] outlines) {
+		int[] bounds = null;
+		for(double[] outline: outlines) {
+			int[] b = bounds(outline);
+			if(b == null)
+				continue;
+			if(bounds == null)
+				bounds = b;
+			else {
+				bounds[0] = Math.min(bounds[0], b[0]);
+				bounds[1] = Math.min(bounds[1], b[1]);
+				bounds[2] = Math.max(bounds[2], b[2]);
+				bounds[3] = Math.max(bounds[3], b[3]);
+			}
+		}
+
+		if(bounds == null)
+			return;
+
+		for(int x=bounds[0]; x<=bounds[2]; x++) {
+			double lon = x*OpenStreetMaps.TILE_SIZE;
+			for(int y=bounds[1]; y<=bounds[3]; y++) {
+				double lat = y*OpenStreetMaps.TILE_SIZE;
+
+				boolean inside = false;
+				for(double[] outline: outlines) {
+					for(int i=2; i<outline.length; i+=2) {
+						double slon = outline[i - 2], slat = outline[i - 1], elon = outline[i], elat = outline[i + 1];
+						if(slon != slon || elon != elon)
+							continue;
+						if((slat > lat) != (elat > lat) && lon < slon + (elon - slon)*(lat - slat)/(elat - slat))
+							inside = !inside;
+					}
+				}
+
+				if(inside)
+					region(regions, x, y).ground.add(id);
+			}
+		}
+	}
+
+	//regions the points of the geometry are in, as {lowX, lowY, highX, highY}, null if it has none
+	private static int[] bounds(double[] geometry) {
+		double minLon = Double.POSITIVE_INFINITY, minLat = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		for(int i=0; i<geometry.length; i+=2) {
+			if(geometry[i] != geometry[i])
+				continue;
+			minLon = Math.min(minLon, geometry[i]);
+			maxLon = Math.max(maxLon, geometry[i]);
+			minLat = Math.min(minLat, geometry[i + 1]);
+			maxLat = Math.max(maxLat, geometry[i + 1]);
+		}
+
+		if(minLon > maxLon)
+			return null;
+
+		//points right on a border are in the regions on both sides of it
+		return new int[] {(int)Math.ceil(minLon/OpenStreetMaps.TILE_SIZE) - 1, (int)Math.ceil(minLat/OpenStreetMaps.TILE_SIZE) - 1,
+				(int)Math.floor(maxLon/OpenStreetMaps.TILE_SIZE), (int)Math.floor(maxLat/OpenStreetMaps.TILE_SIZE)};
+	}
+
+	private static RegionOut region(Map<Long, RegionOut> regions, int x, int y) {
+		return regions.computeIfAbsent(key(x, y), k -> new RegionOut());
+	}
+
+	//gathers the spooled elements of every region into the index
+	private static void write(File pbf, File file, Map<Long, RegionOut> regions, Spool spool) throws IOException {
+		long[] keys = new long[regions.size()];
+		int n = 0;
+		for(long key: regions.keySet())
+			keys[n++] = key;
+		Arrays.sort(keys);
+
+		MappedFile records = spool.finish();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(pbf.length());
+			out.writeLong(pbf.lastModified());
+			out.writeInt(keys.length);
+
+			long offset = HEADER + (long)keys.length*ENTRY;
+			for(long key: keys) {
+				long size = regions.get(key).size(records);
+				if(size > Integer.MAX_VALUE)
+					throw new IOException("OSM region " + (int)(key >> 32) + " " + (int)key + " is too large for the index");
+				out.writeLong(key);
+				out.writeLong(offset);
+				out.writeInt((int)size);
+				offset += size;
+			}
+
+			byte[] buf = new byte[1<<16];
+			for(long key: keys) {
+				RegionOut region = regions.get(key);
+				out.writeInt(region.records.size);
+				for(int i=0; i<region.records.size; i++) {
+					long record = region.records.data[i];
+					int length = records.getInt(record);
+					if(buf.length < length)
+						buf = new byte[Math.max(length, buf.length*2)];
+					records.get(record + 4, buf, 0, length);
+					out.write(buf, 0, length);
+				}
+
+				out.writeInt(region.ground.size);
+				for(int i=0; i<region.ground.size; i++)
+					out.writeLong(region.ground.data[i]);
+			}
+		}
+	}
+
+	private static Map<String, String> filter(Map<String, String> tags) {
+		Map<String, String> filtered = new HashMap<String, String>();
+		for(String key: KEYS) {
+			String value = tags.get(key);
+			if(value != null)
+				filtered.put(key, value);
+		}
+		return filtered;
+	}
+
+	//a relation member, once it has been cut up
+	private static class Way {
+		double[] geometry;
+		List<Long> regions = new ArrayList<Long>(); //regions it went in
+
+		Way(double[] geometry) {
+			this.geometry = geometry;
+		}
+	}
+
+	private static class Relation {
+		long id;
+		Map<String, String> tags;
+		long[] members;
+
+		Relation(long id, Map<String, String> tags, long[] members) {
+			this.id = id;
+			this.tags = tags;
+			this.members = members;
+		}
+	}
+
+	//the elements of one region while the index is being built, as where they are in the spool
+	private static class RegionOut {
+		Longs records = new Longs();
+		Longs ground = new Longs();
+
+		long size(MappedFile spool) {
+			long size = 4 + 4 + ground.size*8L;
+			for(int i=0; i<records.size; i++)
+				size += spool.getInt(records.data[i]);
+			return size;
+		}
+	}
+
+	//elements written out as they are cut up, each once however many regions it goes in, with its length in front
+	private static class Spool implements AutoCloseable {
+		private final File file;
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream data = new DataOutputStream(bytes);
+		private long size;
+		private IOException failure; //from the pbf handlers, which can't throw it, so finish does
+
+		Spool(File file) throws IOException {
+			this.file = file;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+		}
+
+		//where in the spool the element went
+		long element(OpenStreetMaps.EType type, long id, Map<String, String> tags, double[] geometry, int length, long[] members) {
+			if(failure != null)
+				return 0;
+
+			try {
+				bytes.reset();
+				data.writeByte(type.ordinal());
+				data.writeLong(id);
+
+				data.writeByte(tags.size());
+				for(int k=0; k<KEYS.length; k++) {
+					String value = tags.get(KEYS[k]);
+					if(value != null) {
+						byte[] b = value.getBytes(StandardCharsets.UTF_8);
+						data.writeByte(k);
+						data.writeShort(Math.min(b.length, 0xffff));
+						data.write(b, 0, Math.min(b.length, 0xffff));
+					}
+				}
+
+				data.writeInt(length/2);
+				for(int i=0; i<length; i++)
+					data.writeInt(geometry[i]!=geometry[i]?GAP:(int)Math.round(geometry[i]*PRECISION));
+
+				data.writeInt(members == null ? 0 : members.length);
+				if(members != null)
+					for(long member: members)
+						data.writeLong(member);
+
+				if(bytes.size() > MappedFile.OVERLAP)
+					throw new IOException("OSM element " + id + " is too large for the index");
+
+				long record = size;
+				out.writeInt(bytes.size());
+				bytes.writeTo(out);
+				size += 4 + bytes.size();
+				return record;
+			} catch(IOException e) {
+				failure = e;
+				return 0;
+			}
+		}
+
+		//done writing, the elements are read back through a mapping
+		MappedFile finish() throws IOException {
+			out.close();
+			if(failure != null)
+				throw failure;
+			return new MappedFile(file);
+		}
+
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	//growable list of ids that can be sorted and searched
+	private static class Longs {
+		long[] data = new long[64];
+		int size;
+
+		void add(long v) {
+			if(size == data.length)
+				data = Arrays.copyOf(data, size*2);
+			data[size++] = v;
+		}
+
+		//also removes duplicates
+		void sort() {
+			Arrays.sort(data, 0, size);
+			int n = 0;
+			for(int i=0; i<size; i++)
+				if(n == 0 || data[i] != data[n - 1])
+					data[n++] = data[i];
+			size = n;
+		}
+
+		int indexOf(long v) {
+			int i = Arrays.binarySearch(data, 0, size, v);
+			return i < 0 ? -1 : i;
+		}
+
+		boolean contains(long v) {
+			return indexOf(v) >= 0;
+		}
+	}
+}
@@ -0,0 +1,390 @@
+package io.github.terra121.dataset;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+//minimal reader for .osm.pbf extracts, only decodes what building regions out of them needs
+//the format is a sequence of zlib compressed protocol buffer blocks, see https://wiki.openstreetmap.org/wiki/PBF_Format
+public class PbfReader {
+
+	public interface Handler {
+		default void node(long id, double lon, double lat) {}
+
+		//refs are the ids of the way's nodes, only valid during the call
+		default void way(long id, Map<String, String> tags, long[] refs, int numRefs) {}
+
+		//only the way members, only valid during the call
+		default void relation(long id, Map<String, String> tags, long[] members, int numMembers) {}
+	}
+
+	private File file;
+
+	private Map<String, String> tags = new HashMap<String, String>();
+	private long[] ids = new long[256];
+
+	public PbfReader(File file) {
+		this.file = file;
+	}
+
+	//goes through the whole file, elements of the kinds that aren't wanted are skipped without decoding them
+	public void read(Handler handler, boolean nodes, boolean ways, boolean relations) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16))) {
+			while(true) {
+				int headerLength;
+				try {
+					headerLength = in.readInt();
+				} catch(EOFException e) {
+					return;
+				}
+
+				byte[] header = new byte[headerLength];
+				in.readFully(header);
+
+				String type = null;
+				int dataSize = 0;
+				Message m = new Message(header, 0, headerLength);
+				while(m.next()) {
+					if(m.field() == 1) type = m.string();
+					else if(m.field() == 3) dataSize = (int)m.varint();
+					else m.skip();
+				}
+
+				byte[] blob = new byte[dataSize];
+				in.readFully(blob);
+
+				if("OSMHeader".equals(type))
+					header(inflate(blob));
+				else if("OSMData".equals(type))
+					block(inflate(blob), handler, nodes, ways, relations);
+			}
+		}
+	}
+
+	private static byte[] inflate(byte[] blob) throws IOException {
+		Message m = new Message(blob, 0, blob.length);
+		Message zlib = null;
+		int rawSize = 0;
+
+		while(m.next()) {
+			switch(m.field()) {
+				case 1: //stored without compression
+					Message raw = m.message();
+					return Arrays.copyOfRange(raw.data, raw.pos, raw.end);
+				case 2:
+					rawSize = (int)m.varint();
+					break;
+				case 3:
+					zlib = m.message();
+					break;
+				case 4: case 5: case 6: case 7:
+					throw new IOException("Unsupported PBF compression, only zlib is supported");
+				default:
+					m.skip();
+			}
+		}
+
+		if(zlib == null)
+			throw new IOException("Empty PBF blob");
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(zlib.data, zlib.pos, zlib.end - zlib.pos);
+			byte[] out = new byte[rawSize];
+			int n = 0;
+			while(n < rawSize) {
+				int read = inflater.inflate(out, n, rawSize - n);
+				if(read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Truncated PBF blob");
+				n += read;
+			}
+			return out;
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt PBF blob", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	//refuses files that need something this reader doesn't understand
+	private static void header(byte[] data) throws IOException {
+		Message m = new Message(data, 0, data.length);
+		while(m.next()) {
+			if(m.field() == 4) {
+				String feature = m.string();
+				if(!feature.equals("OsmSchema-V0.6") && !feature.equals("DenseNodes"))
+					throw new IOException("Unsupported PBF feature " + feature);
+			}
+			else m.skip();
+		}
+	}
+
+	private void block(byte[] data, Handler handler, boolean nodes, boolean ways, boolean relations) throws IOException {
+		Message m = new Message(data, 0, data.length);
+		String[] strings = new String[0];
+		Message[] groups = new Message[8];
+		int numGroups = 0;
+		long granularity = 100, latOffset = 0, lonOffset = 0;
+
+		while(m.next()) {
+			switch(m.field()) {
+				case 1:
+					strings = strings(m.message());
+					break;
+				case 2:
+					if(numGroups == groups.length)
+						groups = Arrays.copyOf(groups, numGroups*2);
+					groups[numGroups++] = m.message();
+					break;
+				case 17:
+					granularity = m.varint();
+					break;
+				case 19:
+					latOffset = m.varint();
+					break;
+				case 20:
+					lonOffset = m.varint();
+					break;
+				default:
+					m.skip();
+			}
+		}
+
+		//coordinates are in units of granularity nanodegrees
+		double scale = granularity * 1e-9;
+		double lonBase = lonOffset * 1e-9, latBase = latOffset * 1e-9;
+
+		for(int g=0; g<numGroups; g++) {
+			Message group = groups[g];
+			while(group.next()) {
+				switch(group.field()) {
+					case 1:
+						if(nodes) node(group.message(), handler, scale, lonBase, latBase);
+						else group.skip();
+						break;
+					case 2:
+						if(nodes) denseNodes(group.message(), handler, scale, lonBase, latBase);
+						else group.skip();
+						break;
+					case 3:
+						if(ways) way(group.message(), handler, strings);
+						else group.skip();
+						break;
+					case 4:
+						if(relations) relation(group.message(), handler, strings);
+						else group.skip();
+						break;
+					default:
+						group.skip();
+				}
+			}
+		}
+	}
+
+	private static String[] strings(Message table) throws IOException {
+		String[] strings = new String[16];
+		int n = 0;
+		while(table.next()) {
+			if(table.field() != 1) {
+				table.skip();
+				continue;
+			}
+			if(n == strings.length)
+				strings = Arrays.copyOf(strings, n*2);
+			strings[n++] = table.string();
+		}
+		return Arrays.copyOf(strings, n);
+	}
+
+	private static void node(Message m, Handler handler, double scale, double lonBase, double latBase) throws IOException {
+		long id = 0, lat = 0, lon = 0;
+		while(m.next()) {
+			switch(m.field()) {
+				case 1: id = m.sint(); break;
+				case 8: lat = m.sint(); break;
+				case 9: lon = m.sint(); break;
+				default: m.skip();
+			}
+		}
+		handler.node(id, lonBase + lon*scale, latBase + lat*scale);
+	}
+
+	//ids and coordinates are delta coded
+	private static void denseNodes(Message m, Handler handler, double scale, double lonBase, double latBase) throws IOException {
+		Message ids = null, lats = null, lons = null;
+		while(m.next()) {
+			switch(m.field()) {
+				case 1: ids = m.packed(); break;
+				case 8: lats = m.packed(); break;
+				case 9: lons = m.packed(); break;
+				default: m.skip();
+			}
+		}
+
+		if(ids == null || lats == null || lons == null)
+			return;
+
+		long id = 0, lat = 0, lon = 0;
+		while(ids.pos < ids.end && lats.pos < lats.end && lons.pos < lons.end) {
+			id += ids.sint();
+			lat += lats.sint();
+			lon += lons.sint();
+			handler.node(id, lonBase + lon*scale, latBase + lat*scale);
+		}
+	}
+
+	private void way(Message m, Handler handler, String[] strings) throws IOException {
+		long id = 0;
+		Message keys = null, vals = null, refs = null;
+		while(m.next()) {
+			switch(m.field()) {
+				case 1: id = m.varint(); break;
+				case 2: keys = m.packed(); break;
+				case 3: vals = m.packed(); break;
+				case 8: refs = m.packed(); break;
+				default: m.skip();
+			}
+		}
+
+		tags(keys, vals, strings);
+
+		int n = 0;
+		long ref = 0;
+		while(refs != null && refs.pos < refs.end) {
+			ref += refs.sint();
+			add(n++, ref);
+		}
+
+		handler.way(id, tags, ids, n);
+	}
+
+	private void relation(Message m, Handler handler, String[] strings) throws IOException {
+		long id = 0;
+		Message keys = null, vals = null, memids = null, types = null;
+		while(m.next()) {
+			switch(m.field()) {
+				case 1: id = m.varint(); break;
+				case 2: keys = m.packed(); break;
+				case 3: vals = m.packed(); break;
+				case 9: memids = m.packed(); break;
+				case 10: types = m.packed(); break;
+				default: m.skip();
+			}
+		}
+
+		tags(keys, vals, strings);
+
+		int n = 0;
+		long member = 0;
+		while(memids != null && types != null && memids.pos < memids.end && types.pos < types.end) {
+			member += memids.sint();
+			if(types.varint() == 1) //0 is node, 1 way, 2 relation
+				add(n++, member);
+		}
+
+		handler.relation(id, tags, ids, n);
+	}
+
+	private void tags(Message keys, Message vals, String[] strings) throws IOException {
+		tags.clear();
+		while(keys != null && vals != null && keys.pos < keys.end && vals.pos < vals.end) {
+			int k = (int)keys.varint(), v = (int)vals.varint();
+			if(k < 0 || k >= strings.length || v < 0 || v >= strings.length)
+				throw new IOException("Bad string table index in PBF");
+			tags.put(strings[k], strings[v]);
+		}
+	}
+
+	private void add(int i, long id) {
+		if(i == ids.length)
+			ids = Arrays.copyOf(ids, i*2);
+		ids[i] = id;
+	}
+
+	//cursor over the fields of one protocol buffer message
+	private static class Message {
+		byte[] data;
+		int pos, end;
+		int tag; //field number and wire type of the current field
+
+		Message(byte[] data, int pos, int end) {
+			this.data = data;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		boolean next() {
+			if(pos >= end)
+				return false;
+			tag = (int)varint();
+			return true;
+		}
+
+		int field() {
+			return tag >>> 3;
+		}
+
+		long varint() {
+			long value = 0;
+			for(int shift = 0; shift < 64; shift += 7) {
+				byte b = data[pos++];
+				value |= (long)(b & 0x7f) << shift;
+				if(b >= 0)
+					break;
+			}
+			return value;
+		}
+
+		//zig zag coded signed value
+		long sint() {
+			long v = varint();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		Message message() {
+			int length = (int)varint();
+			Message m = new Message(data, pos, pos + length);
+			pos += length;
+			return m;
+		}
+
+		String string() {
+			int length = (int)varint();
+			String s = new String(data, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return s;
+		}
+
+		//values of a repeated number field, which some writers don't pack
+		Message packed() throws IOException {
+			if((tag & 7) == 2)
+				return message();
+
+			int start = pos;
+			skip();
+			return new Message(data, start, pos);
+		}
+
+		void skip() throws IOException {
+			switch(tag & 7) {
+				case 0: varint(); break;
+				case 1: pos += 8; break;
+				case 2: //not pos += varint(), that would add the length to pos from before it was read
+					int length = (int)varint();
+					pos += length;
+					break;
+				case 5: pos += 4; break;
+				default: throw new IOException("Bad protocol buffer wire type " + (tag & 7));
+			}
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package io.github.terra121.dataset;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.terra121.projection.MapsProjection;
+
+//an elevation grid in a raw memory mapped file, for staging a whole area locally as one raster
+//header (big endian): int "D121", int version 1, int width, int height, int bytes per sample (2 for int16 meters or 4 for float32 meters),
+//then doubles west, south, east, north for the outer edges of the grid in degrees, followed by the rows from north to south
+//terrarium tiles are resampled from it bilinearly, only the ones entirely inside of the grid are covered
+public class RawDem implements ElevationSource {
+	private static final int MAGIC = 0x44313231; //"D121"
+	private static final int VERSION = 1;
+	private static final int HEADER = 52;
+
+	private static final short NO_DATA = -32768;
+
+	private MappedFile file;
+	private int width, height, depth;
+	private double west, south, east, north;
+
+	private MapsProjection projection = new MapsProjection();
+
+	public RawDem(File dem) throws IOException {
+		file = new MappedFile(dem);
+
+		if(file.size() < HEADER || file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+			throw new IOException(dem + " is not a raw elevation grid");
+
+		width = file.getInt(8);
+		height = file.getInt(12);
+		depth = file.getInt(16);
+		west = file.getDouble(20);
+		south = file.getDouble(28);
+		east = file.getDouble(36);
+		north = file.getDouble(44);
+
+		if((depth != 2 && depth != 4) || width < 2 || height < 2 || !(west < east && south < north))
+			throw new IOException(dem + " has a bad header");
+		if(file.size() < HEADER + (long)width*height*depth)
+			throw new IOException(dem + " is shorter than its header says");
+	}
+
+	public boolean load(int zoom, int x, int y, Tile out) throws IOException {
+		int size = Terrarium.SIZE;
+		double scale = 1.0 / ((long)size << zoom);
+
+		//longitude only depends on the column and latitude only on the row, so each only needs projecting once
+		double[] cols = new double[size];
+		double[] rows = new double[size];
+		double[] geo = new double[2];
+		for(int i=0; i<size; i++) {
+			projection.toGeo(((long)x*size + i)*scale, ((long)y*size + i)*scale, geo);
+			cols[i] = (geo[0] - west) / (east - west) * width - 0.5; //samples are at the centers of their cells
+			rows[i] = (north - geo[1]) / (north - south) * height - 0.5;
+		}
+
+		if(cols[0] < -0.5 || cols[size-1] > width - 0.5 || rows[0] < -0.5 || rows[size-1] > height - 0.5)
+			return false;
+
+		for(int py=0; py<size; py++) {
+			double gy = Math.max(0, Math.min(height - 1.0001, rows[py]));
+			int ry = (int)gy;
+			double v = gy - ry;
+
+			for(int px=0; px<size; px++) {
+				double gx = Math.max(0, Math.min(width - 1.0001, cols[px]));
+				int rx = (int)gx;
+				double u = gx - rx;
+
+				double h = (1-v)*((1-u)*sample(rx, ry) + u*sample(rx+1, ry)) + v*((1-u)*sample(rx, ry+1) + u*sample(rx+1, ry+1));
+				out.set(py*size + px, h == h ? (int)Math.round(h*256) : 0); //no data is sea level
+			}
+		}
+		return true;
+	}
+
+	//meters, NaN for no data
+	private double sample(int x, int y) {
+		long pos = HEADER + ((long)y*width + x)*depth;
+		if(depth == 2) {
+			short s = file.getShort(pos);
+			return s == NO_DATA ? Double.NaN : s;
+		}
+		return file.getFloat(pos);
+	}
+
+	public String cacheName() {
+		return null;
+	}
+}
@@ -15,6 +15,15 @@ public class Region {
 	public short[][] indexes;
 	public byte[][] states;
 	
+	public EdgeStore edges;
+	
+	//index from chunks to edges, built by OpenStreetMaps
+	//the edges crossing chunk x,z are the cellEdges[i]th edges for cellStarts[c] <= i < cellStarts[c+1] where c = findCell(x, z)
+	public int lowX, lowZ, highX, highZ;
+	public int[] cells;
+	public int[] cellStarts;
+	public int[] cellEdges;
+	
 	public static enum BoundaryType {
 		water
 	}
@@ -116,6 +125,32 @@ public class Region {
 		return min;
 	}
 	
+	//position of the chunk in cells, negative if no edges cross it
+	public int findCell(int x, int z) {
+		if(cells == null || x < lowX || x >= highX || z < lowZ || z >= highZ)
+			return -1;
+		
+		int cell = (x-lowX)*Math.max(1, highZ-lowZ) + (z-lowZ);
+		return Arrays.binarySearch(cells, cell);
+	}
+	
+	//approximate memory used by this region and its edges, for the region cache
+	public long estimateSize() {
+		long size = 256;
+		
+		if(edges != null)
+			size += edges.estimateSize();
+		
+		if(cells != null)
+			size += cells.length*8L + cellEdges.length*4L;
+		
+		if(indexes != null)
+			for(int x=0; x<indexes.length; x++)
+				size += 32 + indexes[x].length*3L;
+		
+		return size;
+	}
+	
 	public int hashCode() {
 		return coord.hashCode();
 	}
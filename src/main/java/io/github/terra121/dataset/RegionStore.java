@@ -0,0 +1,125 @@
+package io.github.terra121.dataset;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.terra121.TerraConfig;
+
+//compiled osm regions saved to disk, so they don't have to be asked from overpass and parsed again
+//ways are saved in geographic coordinates (so any projection can use them) along with the rendered water of the region
+//and the time they were downloaded, regions older than osmMaxAge days are downloaded again
+public class RegionStore extends DiskCache {
+	private static final int MAGIC = 0x52313231; //"R121"
+	private static final int VERSION = 2;
+
+	//overpass gives coordinates to 7 decimal places, so they fit exactly in ints
+	private static final double PRECISION = 1e7;
+	private static final int GAP = Integer.MIN_VALUE;
+
+	private static final long DAY = 24*60*60*1000L;
+
+	private static RegionStore instance;
+
+	public RegionStore(File dir, long maxBytes) {
+		super(dir, maxBytes, ".region");
+	}
+
+	//shared instance configured from TerraConfig, null if disabled
+	public static synchronized RegionStore get() {
+		if(TerraConfig.osmDiskCacheSize <= 0)
+			return null;
+
+		if(instance == null)
+			instance = new RegionStore(new File(TerraConfig.cacheDirectory, "osm"), TerraConfig.osmDiskCacheSize*1024L*1024L);
+		return instance;
+	}
+
+	//fills in the ways and water of the region, false if it isn't saved
+	public boolean load(String key, OpenStreetMaps.Ways ways, Region region) {
+		boolean loaded = load(key, in -> {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Bad region header");
+
+			long saved = in.readLong();
+			if(TerraConfig.osmMaxAge > 0 && System.currentTimeMillis() - saved > TerraConfig.osmMaxAge*DAY)
+				throw new Expired();
+
+			int count = in.readInt();
+			double[] geometry = new double[256];
+			for(int w=0; w<count; w++) {
+				ways.add(in.readByte(), in.readByte(), in.readByte(), in.readByte());
+
+				int len = in.readInt();
+				if(len > geometry.length)
+					geometry = new double[len];
+				for(int i=0; i<len; i++) {
+					int v = in.readInt();
+					geometry[i] = v==GAP?Double.NaN:v/PRECISION;
+				}
+				ways.addCoords(geometry, len);
+			}
+
+			if(in.readBoolean()) {
+				int hres = in.readInt();
+				if(hres != region.water.hres)
+					throw new IOException("Water resolution changed");
+
+				region.indexes = new short[hres][];
+				region.states = new byte[hres][];
+				for(int x=0; x<hres; x++) {
+					int len = in.readInt();
+					short[] index = region.indexes[x] = new short[len];
+					byte[] state = region.states[x] = new byte[len];
+					for(int i=0; i<len; i++)
+						index[i] = in.readShort();
+					in.readFully(state);
+				}
+
+				//already rendered
+				region.lines = null;
+				region.southLine = null;
+			}
+		});
+
+		if(!loaded) {
+			ways.count = ways.length = 0;
+			region.indexes = null;
+			region.states = null;
+		}
+		return loaded;
+	}
+
+	public void save(String key, OpenStreetMaps.Ways ways, Region region) {
+		save(key, out -> {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+
+			out.writeInt(ways.count);
+			for(int w=0; w<ways.count; w++) {
+				out.writeByte(ways.types[w]);
+				out.writeByte(ways.lanes[w]);
+				out.writeByte(ways.attributes[w]);
+				out.writeByte(ways.layers[w]);
+
+				int start = w==0?0:ways.ends[w-1];
+				out.writeInt(ways.ends[w] - start);
+				for(int i=start; i<ways.ends[w]; i++) {
+					double v = ways.coords[i];
+					out.writeInt(v!=v?GAP:(int)Math.round(v*PRECISION));
+				}
+			}
+
+			out.writeBoolean(region.indexes != null);
+			if(region.indexes != null) {
+				out.writeInt(region.indexes.length);
+				for(int x=0; x<region.indexes.length; x++) {
+					out.writeInt(region.indexes[x].length);
+					for(short v: region.indexes[x])
+						out.writeShort(v);
+					out.write(region.states[x]);
+				}
+			}
+		});
+	}
+}
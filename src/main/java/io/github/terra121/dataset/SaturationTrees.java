@@ -1,14 +1,8 @@
 package io.github.terra121.dataset;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
-import java.util.HashMap;
-
-import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.common.bytesource.ByteSourceInputStream;
-import org.apache.commons.imaging.formats.tiff.TiffImageParser;
 
 import io.github.terra121.TerraConfig;
 import io.github.terra121.TerraMod;
@@ -17,8 +11,15 @@ public class SaturationTrees extends Trees {
 	
 	public String URL_PREFIX = TerraConfig.serverTree + "ForestCover_last/ImageServer/exportImage?f=image&bbox=";
 	
-	protected int[] request(Coord place) {
-		int out[] = new int[256 * 256];
+	//255/max in 16.16 fixed point, so saturation doesn't need a division per pixel
+	private static final int[] INVERSE = new int[256];
+	static {
+		for(int max=1; max<256; max++)
+			INVERSE[max] = (255<<16)/max + 1;
+	}
+	
+	protected Tile request(Coord place) {
+		Tile tile = newTile();
 
         for(int i=0; i<5; i++) {
 
@@ -29,39 +30,21 @@ public class SaturationTrees extends Trees {
                 TerraMod.LOGGER.info(urlText);
                 URL url = new URL(urlText);
                 is = url.openStream();
-                ByteSourceInputStream by = new ByteSourceInputStream(is, "shits and giggles");
-                TiffImageParser p = new TiffImageParser();
-                BufferedImage img = p.getBufferedImage(by, new HashMap<String,Object>());
+                Tiff img = Tiff.read(is);
                 is.close();
                 is = null;
                 
-                if(img == null) {
-                    throw new IOException("Invalid image file");
+                if(img.width != width || img.height != height) {
+                    throw new IOException("Forest cover tile is " + img.width + "x" + img.height);
                 }
 
-                //compile height data from image, stored in 256ths of a meter units
-                img.getRGB(0, 0, 256, 256, out, 0, 256);
-
-                for (int x = 0; x < img.getWidth(); x++) {
-                    for (int y = 0; y < img.getHeight(); y++) {
-                        int c = y * 256 + x;
-                        int rgb = out[c];
-                        
-                        if(rgb==0xffffffff||rgb==0||rgb==0xff000000)out[c] = 0; //white black or transparent means no trees
-                        else {
-                        	//TODO: faster solution
-                        	//get saturation value to use as base for tree
-                        	int max = Math.max(Math.max(rgb&0xff0000, rgb&0xff00), rgb&0xff);
-                        	int min = Math.min(Math.min(rgb&0xff0000, rgb&0xff00), rgb&0xff);
-                        	float sat = max/(float)(max-min);
-                        	out[c] = (int)(sat*256);
-                        }
-                    }
+                for (int c = 0; c < width*height; c++) {
+                    tile.set(c, saturation(img.argb(c)));
                 }
 
-                return out;
+                return tile;
 
-            } catch (IOException | ImageReadException ioe) {
+            } catch (IOException ioe) {
                 if(is!=null) {
                     try {
                         is.close();
@@ -73,10 +56,24 @@ public class SaturationTrees extends Trees {
         }
 
         TerraMod.LOGGER.error("Failed too many times, trees will not spawn");
-        return out;
+        return null;
+	}
+	
+	//saturation of a packed rgb color from 0-255, used as the base for trees
+	static int saturation(int argb) {
+		if(argb==0xffffffff||argb==0||argb==0xff000000) return 0; //white black or transparent means no trees
+		
+		int r = (argb>>16)&0xff, g = (argb>>8)&0xff, b = argb&0xff;
+		int max = Math.max(Math.max(r, g), b);
+		int min = Math.min(Math.min(r, g), b);
+		return ((max - min)*INVERSE[max])>>>16;
 	}
 	
 	protected double dataToDouble(int data) {
-		return data/256.0;
+		return data/255.0;
+	}
+	
+	protected String diskCacheName() {
+		return "forestcover";
 	}
 }
@@ -5,28 +5,28 @@ import java.io.IOException;
 import java.io.InputStream;
 
 public class Soil {
-    RandomAccessRunlength<Byte> data;
+    ByteRunlength data;
     public static final int COLS = 10800;
     public static final int ROWS = 5400;
+    static final String RESOURCE = "assets/terra121/data/suborder.img";
 
-    public Soil(InputStream input) throws IOException {
-        //save some memory by tying the same bytes to the same object (idk if java does this already)
-        Byte[] bytes = new Byte[256];
-        for (int x = 0; x < bytes.length; x++) {
-            bytes[x] = (byte) x;
-        }
-
-        //save in a random access run lenth to save ram at the slight cost of efficiency
-        //this works because one soil type tends to stretch more than 4km
-        data = new RandomAccessRunlength<Byte>();
+    //the bundled soil suborders, mapped from the cache directory
+    public Soil() throws IOException {
+        this(ByteRunlength.compiled(RESOURCE, in -> new Soil(in).data));
+    }
 
-        BufferedInputStream is = new BufferedInputStream(input);
+    public Soil(ByteRunlength data) throws IOException {
+        this.data = data;
 
-        int i;
-        while ((i = is.read()) >= 0) {
-            data.add(bytes[i]);
+        if(data.size() != COLS*ROWS) {
+            throw new IOException("Soil data invalid, " + data.size());
         }
+    }
 
+    public Soil(InputStream input) throws IOException {
+        //save in a run length to save ram at the slight cost of efficiency
+        //this works because one soil type tends to stretch more than 4km
+        data = new ByteRunlength.Builder().addAll(new BufferedInputStream(input)).build();
 
         if(data.size() != COLS*ROWS) {
             throw new IOException("Soil data invalid, " + data.size());
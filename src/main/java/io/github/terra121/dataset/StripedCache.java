@@ -0,0 +1,148 @@
+package io.github.terra121.dataset;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+//thread safe lru cache bounded by memory instead of entry count
+//keys are spread over several independently locked segments, each with its own access ordered lru
+//so threads working on different parts of the world rarely wait on each other
+//every segment gets an equal share of the weight and evicts on its own, so if the keys in use crowd into
+//a few segments those start evicting while the others still have room
+public class StripedCache<K, V> {
+	private final Segment[] segments;
+	private final int mask;
+	private final ToLongFunction<V> weigher;
+	private final BiConsumer<K, V> onEvict;
+
+	public StripedCache(int concurrency, long maxWeight, ToLongFunction<V> weigher, BiConsumer<K, V> onEvict) {
+		int n = Integer.highestOneBit(Math.max(1, concurrency));
+		@SuppressWarnings("unchecked")
+		Segment[] segments = (Segment[])new StripedCache<?, ?>.Segment[n];
+		for(int i=0; i<n; i++)
+			segments[i] = new Segment(Math.max(1, maxWeight/n));
+		this.segments = segments;
+
+		mask = n-1;
+		this.weigher = weigher;
+		this.onEvict = onEvict;
+	}
+
+	public StripedCache(int concurrency, long maxWeight, ToLongFunction<V> weigher) {
+		this(concurrency, maxWeight, weigher, null);
+	}
+
+	private Segment segment(Object key) {
+		//packed coordinates are mixed whole, their own hashCode is x^y so every diagonal would share a segment
+		long h = key instanceof Long?(Long)key:key.hashCode();
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return segments[(int)h & mask];
+	}
+
+	public V get(K key) {
+		Segment s = segment(key);
+		synchronized(s) {
+			return s.map.get(key); //also marks it as most recently used
+		}
+	}
+
+	public boolean containsKey(K key) {
+		Segment s = segment(key);
+		synchronized(s) {
+			return s.map.containsKey(key);
+		}
+	}
+
+	public V put(K key, V value) {
+		return insert(key, value, false);
+	}
+
+	//returns the value that was already there instead of replacing it
+	public V putIfAbsent(K key, V value) {
+		return insert(key, value, true);
+	}
+
+	private V insert(K key, V value, boolean ifAbsent) {
+		Segment s = segment(key);
+		List<Map.Entry<K, V>> evicted = null;
+		V old;
+
+		synchronized(s) {
+			old = s.map.get(key);
+			if(old != null && ifAbsent)
+				return old;
+
+			s.map.put(key, value);
+			if(old != null)
+				s.weight -= weigher.applyAsLong(old);
+			s.weight += weigher.applyAsLong(value);
+
+			//remove the least recently used entries, but never the one that was just added
+			Iterator<Map.Entry<K, V>> it = s.map.entrySet().iterator();
+			while(s.weight > s.maxWeight && s.map.size() > 1) {
+				Map.Entry<K, V> e = it.next();
+				s.weight -= weigher.applyAsLong(e.getValue());
+				if(onEvict != null) {
+					if(evicted == null)
+						evicted = new ArrayList<Map.Entry<K, V>>();
+					evicted.add(e);
+				}
+				it.remove();
+			}
+		}
+
+		//notify outside of the lock so listeners can't deadlock on it
+		if(evicted != null)
+			for(Map.Entry<K, V> e: evicted)
+				onEvict.accept(e.getKey(), e.getValue());
+
+		return ifAbsent?null:old;
+	}
+
+	public V remove(K key) {
+		Segment s = segment(key);
+		synchronized(s) {
+			V old = s.map.remove(key);
+			if(old != null)
+				s.weight -= weigher.applyAsLong(old);
+			return old;
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for(Segment s: segments)
+			synchronized(s) {
+				size += s.map.size();
+			}
+		return size;
+	}
+
+	//estimated memory in use
+	public long weight() {
+		long weight = 0;
+		for(Segment s: segments)
+			synchronized(s) {
+				weight += s.weight;
+			}
+		return weight;
+	}
+
+	private class Segment {
+		LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+		long weight;
+		final long maxWeight;
+
+		Segment(long maxWeight) {
+			this.maxWeight = maxWeight;
+		}
+	}
+}
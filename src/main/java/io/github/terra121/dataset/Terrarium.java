@@ -0,0 +1,179 @@
+package io.github.terra121.dataset;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+//decoding of terrarium pngs, where each pixel is red*256 + green + blue/256 - 32768 meters
+//the usual 8 bit rgb(a) tiles are inflated and unfiltered straight into the tile one scanline at a time,
+//anything unusual (interlaced, palettes, 16 bit) goes through ImageIO instead
+public class Terrarium {
+	public static final int SIZE = 256;
+
+	private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+	private static final int IHDR = 0x49484452;
+	private static final int IDAT = 0x49444154;
+	private static final int IEND = 0x49454E44;
+
+	//fills the tile with the png's elevations in 256ths of a meter
+	public static void decode(InputStream is, int zoom, Tile out) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1<<17);
+		byte[] buf = new byte[8192];
+		int n;
+		while((n = is.read(buf)) > 0)
+			bytes.write(buf, 0, n);
+		decode(bytes.toByteArray(), zoom, out);
+	}
+
+	public static void decode(byte[] png, int zoom, Tile out) throws IOException {
+		if(png.length < 33 || getLong(png, 0) != SIGNATURE || getInt(png, 12) != IHDR)
+			throw new IOException("Invalid image file");
+
+		int width = getInt(png, 16);
+		int height = getInt(png, 20);
+		int bitDepth = png[24];
+		int colorType = png[25];
+		int interlace = png[28];
+
+		if(width != SIZE || height != SIZE) {
+			throw new IOException("Terrarium tile is " + width + "x" + height + " instead of " + SIZE + "x" + SIZE);
+		}
+
+		if(bitDepth != 8 || (colorType != 2 && colorType != 6) || interlace != 0) {
+			decodeImage(png, zoom, out);
+			return;
+		}
+
+		int bpp = colorType == 6 ? 4 : 3;
+		int stride = 1 + SIZE*bpp; //each scanline starts with its filter type
+		byte[] prev = new byte[stride];
+		byte[] cur = new byte[stride];
+
+		Inflater inflater = new Inflater();
+		try {
+			int pos = 8;
+			for(int y=0; y<SIZE; y++) {
+				int filled = 0;
+				while(filled < stride) {
+					if(inflater.needsInput()) {
+						pos = nextData(png, pos, inflater);
+						if(pos < 0)
+							throw new IOException("Truncated terrarium tile");
+					}
+
+					int read = inflater.inflate(cur, filled, stride - filled);
+					if(read == 0 && (inflater.finished() || inflater.needsDictionary()))
+						throw new IOException("Truncated terrarium tile");
+					filled += read;
+				}
+
+				unfilter(cur, prev, bpp);
+
+				int row = y*SIZE;
+				for(int x=0, i=1; x<SIZE; x++, i+=bpp) {
+					int h = (((cur[i]&0xff)<<16) | ((cur[i+1]&0xff)<<8) | (cur[i+2]&0xff)) - 8388608;
+					if(zoom > 10 && h<-1500*256) h = 0; //terrain glitch (default to 0), comment this for fun dataset glitches
+					out.set(row + x, h);
+				}
+
+				byte[] tmp = prev;
+				prev = cur;
+				cur = tmp;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt terrarium tile", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	//gives the inflater the next IDAT chunk after pos, returns the position after it or -1 if there are no more
+	private static int nextData(byte[] png, int pos, Inflater inflater) throws IOException {
+		while(pos + 8 <= png.length) {
+			int length = getInt(png, pos);
+			int type = getInt(png, pos + 4);
+			int data = pos + 8;
+
+			if(length < 0 || data + length > png.length)
+				throw new IOException("Truncated terrarium tile");
+
+			pos = data + length + 4; //skip the crc
+			if(type == IDAT) {
+				inflater.setInput(png, data, length);
+				return pos;
+			}
+			if(type == IEND)
+				break;
+		}
+		return -1;
+	}
+
+	//undoes the png filter of one scanline (filter type first), prev is the already unfiltered line above it
+	//the line above the first one is all zeros, which every filter handles the same as having no line above
+	private static void unfilter(byte[] cur, byte[] prev, int bpp) throws IOException {
+		int length = cur.length;
+		int first = 1 + bpp; //the first pixel has nothing to its left
+		switch(cur[0]) {
+			case 0: //none
+				break;
+			case 1: //sub
+				for(int i=first; i<length; i++)
+					cur[i] += cur[i-bpp];
+				break;
+			case 2: //up
+				for(int i=1; i<length; i++)
+					cur[i] += prev[i];
+				break;
+			case 3: //average
+				for(int i=1; i<first; i++)
+					cur[i] += (prev[i]&0xff) >> 1;
+				for(int i=first; i<length; i++)
+					cur[i] += ((cur[i-bpp]&0xff) + (prev[i]&0xff)) >> 1;
+				break;
+			case 4: //paeth
+				for(int i=1; i<first; i++)
+					cur[i] += prev[i];
+				for(int i=first; i<length; i++) {
+					int a = cur[i-bpp]&0xff, b = prev[i]&0xff, c = prev[i-bpp]&0xff;
+					int p = a + b - c;
+					int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+					cur[i] += pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+				}
+				break;
+			default:
+				throw new IOException("Bad png filter " + cur[0]);
+		}
+	}
+
+	//package visible so tests can check the fast path against it
+	static void decodeImage(byte[] png, int zoom, Tile out) throws IOException {
+		BufferedImage img = ImageIO.read(new ByteArrayInputStream(png));
+
+		if(img == null) {
+			throw new IOException("Invalid image file");
+		}
+
+		int rgb[] = new int[SIZE * SIZE];
+		img.getRGB(0, 0, SIZE, SIZE, rgb, 0, SIZE);
+
+		for (int c = 0; c < rgb.length; c++) {
+			int h = (rgb[c] & 0x00ffffff) - 8388608;
+			if(zoom > 10 && h<-1500*256) h = 0;
+			out.set(c, h);
+		}
+	}
+
+	private static int getInt(byte[] b, int i) {
+		return ((b[i]&0xff)<<24) | ((b[i+1]&0xff)<<16) | ((b[i+2]&0xff)<<8) | (b[i+3]&0xff);
+	}
+
+	private static long getLong(byte[] b, int i) {
+		return ((long)getInt(b, i) << 32) | (getInt(b, i+4) & 0xffffffffL);
+	}
+}
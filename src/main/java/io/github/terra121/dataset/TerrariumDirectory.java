@@ -0,0 +1,31 @@
+package io.github.terra121.dataset;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+//a folder of terrarium pngs laid out like the server, <dir>/zoom/x/y.png
+public class TerrariumDirectory implements ElevationSource {
+	private File dir;
+
+	public TerrariumDirectory(File dir) {
+		this.dir = dir;
+	}
+
+	public boolean load(int zoom, int x, int y, Tile out) throws IOException {
+		File file = new File(dir, zoom + "/" + x + "/" + y + ".png");
+		if(!file.isFile())
+			return false;
+
+		try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+			Terrarium.decode(is, zoom, out);
+		}
+		return true;
+	}
+
+	public String cacheName() {
+		return null;
+	}
+}
@@ -0,0 +1,35 @@
+package io.github.terra121.dataset;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import io.github.terra121.TerraMod;
+
+//terrarium pngs from a web server laid out as <prefix>zoom/x/y.png, like the mapzen tiles on amazon
+public class TerrariumServer implements ElevationSource {
+	private String prefix;
+
+	public TerrariumServer(String prefix) {
+		this.prefix = prefix;
+	}
+
+	public boolean load(int zoom, int x, int y, Tile out) throws IOException {
+		String urlText = prefix + zoom + "/" + x + "/" + y + ".png";
+		TerraMod.LOGGER.info(urlText);
+
+		URL url = new URL(urlText);
+		URLConnection con = url.openConnection();
+		con.addRequestProperty("User-Agent", TerraMod.USERAGENT);
+
+		try (InputStream is = con.getInputStream()) {
+			Terrarium.decode(is, zoom, out);
+		}
+		return true;
+	}
+
+	public String cacheName() {
+		return "terrarium";
+	}
+}
@@ -0,0 +1,365 @@
+package io.github.terra121.dataset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+//minimal reader for the 8 bit tiffs the ArcGIS exportImage endpoint gives back
+//handles strips and tiles, no/lzw/deflate/packbits compression and the horizontal predictor,
+//but only chunky (interleaved) samples, which is all that endpoint writes
+public class Tiff {
+	private static final int WIDTH = 256;
+	private static final int HEIGHT = 257;
+	private static final int BITS_PER_SAMPLE = 258;
+	private static final int COMPRESSION = 259;
+	private static final int PHOTOMETRIC = 262;
+	private static final int STRIP_OFFSETS = 273;
+	private static final int SAMPLES_PER_PIXEL = 277;
+	private static final int ROWS_PER_STRIP = 278;
+	private static final int STRIP_BYTE_COUNTS = 279;
+	private static final int PLANAR_CONFIGURATION = 284;
+	private static final int PREDICTOR = 317;
+	private static final int COLOR_MAP = 320;
+	private static final int TILE_WIDTH = 322;
+	private static final int TILE_LENGTH = 323;
+	private static final int TILE_OFFSETS = 324;
+	private static final int TILE_BYTE_COUNTS = 325;
+
+	private static final int WHITE_IS_ZERO = 0;
+	private static final int RGB = 2;
+	private static final int PALETTE = 3;
+
+	public final int width;
+	public final int height;
+	public final int samples; //per pixel
+	public final int photometric;
+
+	private ByteBuffer buf;
+	private byte[] pixels; //width*height*samples, row-major
+	private int[] colors; //argb palette
+
+	private Tiff(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+
+		int ifd = buf.getInt(4);
+		if(ifd < 8 || ifd + 2 > buf.limit())
+			throw new IOException("Bad tiff directory offset");
+
+		width = (int)value(ifd, WIDTH, -1);
+		height = (int)value(ifd, HEIGHT, -1);
+		samples = (int)value(ifd, SAMPLES_PER_PIXEL, 1);
+		photometric = (int)value(ifd, PHOTOMETRIC, 1);
+		int compression = (int)value(ifd, COMPRESSION, 1);
+		int predictor = (int)value(ifd, PREDICTOR, 1);
+
+		if(width <= 0 || height <= 0 || samples <= 0)
+			throw new IOException("Bad tiff size " + width + "x" + height + "x" + samples);
+
+		for(long bits : values(ifd, BITS_PER_SAMPLE, new long[] {1}))
+			if(bits != 8)
+				throw new IOException("Unsupported tiff sample size " + bits);
+
+		if(samples > 1 && value(ifd, PLANAR_CONFIGURATION, 1) != 1)
+			throw new IOException("Unsupported planar tiff");
+
+		if(predictor != 1 && predictor != 2)
+			throw new IOException("Unsupported tiff predictor " + predictor);
+
+		if(photometric == PALETTE) {
+			long[] map = values(ifd, COLOR_MAP, null);
+			if(map == null || map.length < 3*256)
+				throw new IOException("Tiff palette is missing");
+			colors = new int[256];
+			for(int i=0; i<256; i++) //16 bit channels, red then green then blue
+				colors[i] = 0xff000000 | (int)((map[i]>>8)<<16 | (map[256+i]>>8)<<8 | map[512+i]>>8);
+		}
+
+		//strips are just tiles as wide as the image
+		long[] offsets, counts;
+		int blockWidth, blockHeight;
+		if(find(ifd, TILE_OFFSETS) >= 0) {
+			offsets = values(ifd, TILE_OFFSETS, null);
+			counts = values(ifd, TILE_BYTE_COUNTS, null);
+			blockWidth = (int)value(ifd, TILE_WIDTH, -1);
+			blockHeight = (int)value(ifd, TILE_LENGTH, -1);
+		} else {
+			offsets = values(ifd, STRIP_OFFSETS, null);
+			counts = values(ifd, STRIP_BYTE_COUNTS, null);
+			blockWidth = width;
+			blockHeight = (int)Math.min(value(ifd, ROWS_PER_STRIP, height), height);
+		}
+
+		if(offsets == null || counts == null || offsets.length != counts.length || blockWidth <= 0 || blockHeight <= 0)
+			throw new IOException("Bad tiff layout");
+
+		int across = (width + blockWidth - 1)/blockWidth;
+		int down = (height + blockHeight - 1)/blockHeight;
+		if(offsets.length < across*down)
+			throw new IOException("Tiff is missing blocks");
+
+		pixels = new byte[width*height*samples];
+		byte[] block = new byte[blockWidth*blockHeight*samples];
+		int blockRow = blockWidth*samples;
+
+		for(int by=0; by<down; by++) {
+			for(int bx=0; bx<across; bx++) {
+				int b = by*across + bx;
+				if(offsets[b] < 0 || counts[b] < 0 || offsets[b] + counts[b] > buf.limit())
+					throw new IOException("Tiff block " + b + " is out of bounds");
+
+				Arrays.fill(block, (byte)0);
+				decompress(compression, (int)offsets[b], (int)counts[b], block);
+
+				if(predictor == 2) { //each sample is stored as the difference from the one to its left
+					for(int row=0; row<block.length; row+=blockRow)
+						for(int i=row+samples; i<row+blockRow; i++)
+							block[i] += block[i-samples];
+				}
+
+				//copy what is inside the image, edge tiles hang off of it
+				int x = bx*blockWidth, y = by*blockHeight;
+				int copy = Math.min(blockWidth, width - x)*samples;
+				int rows = Math.min(blockHeight, height - y);
+				for(int row=0; row<rows; row++)
+					System.arraycopy(block, row*blockRow, pixels, ((y+row)*width + x)*samples, copy);
+			}
+		}
+
+		this.buf = null;
+	}
+
+	public static Tiff read(InputStream is) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1<<17);
+		byte[] chunk = new byte[8192];
+		int n;
+		while((n = is.read(chunk)) > 0)
+			bytes.write(chunk, 0, n);
+		return read(bytes.toByteArray());
+	}
+
+	public static Tiff read(byte[] data) throws IOException {
+		if(data.length < 8)
+			throw new IOException("Invalid image file");
+
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		if(data[0] == 'I' && data[1] == 'I')
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+		else if(data[0] != 'M' || data[1] != 'M')
+			throw new IOException("Invalid image file");
+
+		if(buf.getShort(2) != 42)
+			throw new IOException("Unsupported tiff version " + buf.getShort(2));
+
+		return new Tiff(buf);
+	}
+
+	//the first sample of every pixel as 0-255, for single band images (anything else goes through argb)
+	public void band(Tile out) {
+		if(samples == 1 && photometric != PALETTE) {
+			int flip = photometric == WHITE_IS_ZERO ? 0xff : 0;
+			for(int i=0; i<pixels.length; i++)
+				out.set(i, (pixels[i]&0xff) ^ flip);
+		} else {
+			for(int i=0, n=width*height; i<n; i++)
+				out.set(i, argb(i)&0xff);
+		}
+	}
+
+	//the pixel at y*width + x, the same way a BufferedImage would give it
+	public int argb(int idx) {
+		int i = idx*samples;
+		int a = 0xff000000;
+		switch(photometric) {
+			case RGB:
+				if(samples > 3)
+					a = pixels[i+3]<<24;
+				return a | (pixels[i]&0xff)<<16 | (pixels[i+1]&0xff)<<8 | (pixels[i+2]&0xff);
+			case PALETTE:
+				return colors[pixels[i]&0xff];
+			default:
+				int v = pixels[i]&0xff;
+				if(photometric == WHITE_IS_ZERO)
+					v ^= 0xff;
+				if(samples > 1)
+					a = pixels[i+1]<<24;
+				return a | v<<16 | v<<8 | v;
+		}
+	}
+
+	private void decompress(int compression, int off, int len, byte[] out) throws IOException {
+		switch(compression) {
+			case 1:
+				System.arraycopy(buf.array(), off, out, 0, Math.min(len, out.length));
+				break;
+			case 5:
+				lzw(buf.array(), off, len, out);
+				break;
+			case 8: case 32946:
+				inflate(buf.array(), off, len, out);
+				break;
+			case 32773:
+				packBits(buf.array(), off, len, out);
+				break;
+			default:
+				throw new IOException("Unsupported tiff compression " + compression);
+		}
+	}
+
+	//tiff flavoured lzw: msb first codes that widen one code early
+	private static void lzw(byte[] in, int off, int len, byte[] out) throws IOException {
+		int[] prefix = new int[4096];
+		byte[] suffix = new byte[4096];
+		byte[] first = new byte[4096];
+		int[] length = new int[4096];
+		for(int i=0; i<256; i++) {
+			suffix[i] = first[i] = (byte)i;
+			length[i] = 1;
+		}
+
+		int next = 258, codeWidth = 9, old = -1;
+		int bits = 0, bitCount = 0;
+		int pos = off, end = off + len, n = 0;
+
+		while(n < out.length) {
+			while(bitCount < codeWidth) {
+				if(pos >= end)
+					return;
+				bits = (bits<<8) | (in[pos++]&0xff);
+				bitCount += 8;
+			}
+			bitCount -= codeWidth;
+			int code = (bits >>> bitCount) & ((1<<codeWidth) - 1);
+
+			if(code == 257) //end of information
+				return;
+
+			if(code == 256) { //clear
+				next = 258;
+				codeWidth = 9;
+				old = -1;
+				continue;
+			}
+
+			if(old < 0) {
+				if(code > 255)
+					throw new IOException("Corrupt tiff lzw data");
+				out[n++] = (byte)code;
+				old = code;
+				continue;
+			}
+
+			if(code > next || (code == next && next == 4096))
+				throw new IOException("Corrupt tiff lzw data");
+
+			//a code that isn't in the table yet can only be the previous string plus its own first byte
+			if(next < 4096) {
+				prefix[next] = old;
+				suffix[next] = code == next ? first[old] : first[code];
+				first[next] = first[old];
+				length[next] = length[old] + 1;
+				next++;
+			}
+
+			//strings are linked back to front
+			int l = length[code];
+			for(int i=l-1, c=code; i>=0; i--, c=prefix[c])
+				if(n + i < out.length)
+					out[n + i] = suffix[c];
+			n += l;
+
+			old = code;
+			if(next == (1<<codeWidth) - 1 && codeWidth < 12)
+				codeWidth++;
+		}
+	}
+
+	private static void inflate(byte[] in, int off, int len, byte[] out) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(in, off, len);
+			int n = 0;
+			while(n < out.length && !inflater.finished()) {
+				int read = inflater.inflate(out, n, out.length - n);
+				if(read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break; //short blocks are left zeroed
+				n += read;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Corrupt tiff deflate data", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static void packBits(byte[] in, int off, int len, byte[] out) {
+		int pos = off, end = off + len, n = 0;
+		while(pos < end && n < out.length) {
+			int header = in[pos++];
+			if(header >= 0) { //literal run of header+1 bytes
+				int count = Math.min(Math.min(header + 1, end - pos), out.length - n);
+				System.arraycopy(in, pos, out, n, count);
+				pos += header + 1;
+				n += count;
+			} else if(header != -128 && pos < end) { //the next byte repeated 1-header times
+				int count = Math.min(1 - header, out.length - n);
+				Arrays.fill(out, n, n + count, in[pos++]);
+				n += count;
+			}
+		}
+	}
+
+	//directory entry index of a tag, or -1
+	private int find(int ifd, int tag) {
+		int entries = buf.getShort(ifd)&0xffff;
+		for(int e=0; e<entries; e++) {
+			int entry = ifd + 2 + e*12;
+			if(entry + 12 > buf.limit())
+				break;
+			if((buf.getShort(entry)&0xffff) == tag)
+				return entry;
+		}
+		return -1;
+	}
+
+	private long value(int ifd, int tag, long fallback) throws IOException {
+		long[] values = values(ifd, tag, null);
+		return values == null || values.length == 0 ? fallback : values[0];
+	}
+
+	private long[] values(int ifd, int tag, long[] fallback) throws IOException {
+		int entry = find(ifd, tag);
+		if(entry < 0)
+			return fallback;
+
+		int type = buf.getShort(entry + 2)&0xffff;
+		int count = buf.getInt(entry + 4);
+		int size;
+		switch(type) {
+			case 1: size = 1; break; //byte
+			case 3: size = 2; break; //short
+			case 4: size = 4; break; //long
+			default: throw new IOException("Unsupported tiff field type " + type + " for tag " + tag);
+		}
+
+		//values that fit in 4 bytes are stored in the entry itself
+		long bytes = (long)count*size;
+		int pos = bytes <= 4 ? entry + 8 : buf.getInt(entry + 8);
+		if(count < 0 || pos < 0 || pos + bytes > buf.limit())
+			throw new IOException("Tiff tag " + tag + " is out of bounds");
+
+		long[] values = new long[count];
+		for(int i=0; i<count; i++) {
+			switch(size) {
+				case 1: values[i] = buf.get(pos + i)&0xff; break;
+				case 2: values[i] = buf.getShort(pos + i*2)&0xffff; break;
+				default: values[i] = buf.getInt(pos + i*4)&0xffffffffL;
+			}
+		}
+		return values;
+	}
+}
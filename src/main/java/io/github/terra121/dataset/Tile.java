@@ -0,0 +1,154 @@
+package io.github.terra121.dataset;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+//raw samples of one dataset tile, stored as compactly as the dataset's encoding allows
+public abstract class Tile {
+	protected final int length;
+
+	protected Tile(int length) {
+		this.length = length;
+	}
+
+	public abstract int get(int idx);
+	public abstract void set(int idx, int value);
+
+	//bytes per sample, also identifies the format in the disk cache
+	public abstract int depth();
+
+	//approximate memory used (on or off the heap)
+	public long byteSize() {
+		return 16 + (long)length*depth();
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public abstract void write(DataOutputStream out) throws IOException;
+	public abstract void read(DataInputStream in) throws IOException;
+
+	//unsigned 0-255 values, for things like tree cover percentages
+	public static class Bytes extends Tile {
+		private final byte[] data;
+
+		public Bytes(int length) {
+			super(length);
+			data = new byte[length];
+		}
+
+		public int get(int idx) {
+			return data[idx]&0xff;
+		}
+
+		public void set(int idx, int value) {
+			data[idx] = (byte)value;
+		}
+
+		public int depth() {
+			return 1;
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			out.write(data);
+		}
+
+		public void read(DataInputStream in) throws IOException {
+			in.readFully(data);
+		}
+	}
+
+	//signed 24 bit values, enough for terrarium elevations in 256ths of a meter
+	//optionally backed by memory off of the java heap so the garbage collector doesn't have to look at it
+	public static class Int24 extends Tile {
+		private final ByteBuffer data;
+
+		public Int24(int length, boolean offHeap) {
+			super(length);
+			data = offHeap?ByteBuffer.allocateDirect(length*3):ByteBuffer.allocate(length*3);
+		}
+
+		public int get(int idx) {
+			idx *= 3;
+			return (data.get(idx)<<16) | ((data.get(idx+1)&0xff)<<8) | (data.get(idx+2)&0xff);
+		}
+
+		public void set(int idx, int value) {
+			idx *= 3;
+			data.put(idx, (byte)(value>>16));
+			data.put(idx+1, (byte)(value>>8));
+			data.put(idx+2, (byte)value);
+		}
+
+		public int depth() {
+			return 3;
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			if(data.hasArray()) {
+				out.write(data.array());
+				return;
+			}
+
+			byte[] buf = new byte[4096];
+			ByteBuffer dup = data.duplicate();
+			dup.clear();
+			while(dup.hasRemaining()) {
+				int n = Math.min(buf.length, dup.remaining());
+				dup.get(buf, 0, n);
+				out.write(buf, 0, n);
+			}
+		}
+
+		public void read(DataInputStream in) throws IOException {
+			if(data.hasArray()) {
+				in.readFully(data.array());
+				return;
+			}
+
+			byte[] buf = new byte[4096];
+			ByteBuffer dup = data.duplicate();
+			dup.clear();
+			while(dup.hasRemaining()) {
+				int n = Math.min(buf.length, dup.remaining());
+				in.readFully(buf, 0, n);
+				dup.put(buf, 0, n);
+			}
+		}
+	}
+
+	//full ints for anything that doesn't fit in the smaller formats
+	public static class Ints extends Tile {
+		private final int[] data;
+
+		public Ints(int length) {
+			super(length);
+			data = new int[length];
+		}
+
+		public int get(int idx) {
+			return data[idx];
+		}
+
+		public void set(int idx, int value) {
+			data[idx] = value;
+		}
+
+		public int depth() {
+			return 4;
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			for(int v: data)
+				out.writeInt(v);
+		}
+
+		public void read(DataInputStream in) throws IOException {
+			for(int i=0; i<length; i++)
+				data[i] = in.readInt();
+		}
+	}
+}
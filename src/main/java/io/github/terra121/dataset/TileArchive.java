@@ -0,0 +1,123 @@
+package io.github.terra121.dataset;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//a whole set of terrarium pngs in one memory mapped file, so a pre-staged country doesn't need hundreds of thousands of little files
+//laid out as a header, a table of the tiles sorted by zoom/x/y and then the png data
+//one can be packed from a TerrariumDirectory with: java -cp <mod jar> io.github.terra121.dataset.TileArchive <directory> <archive>
+public class TileArchive implements ElevationSource {
+	private static final int MAGIC = 0x41313231; //"A121"
+	private static final int VERSION = 1;
+
+	private static final int HEADER = 12;
+	private static final int ENTRY = 20; //key, offset, length
+
+	private MappedFile file;
+	private long[] keys; //the table is small, so it is kept on the heap
+	private long[] offsets;
+	private int[] lengths;
+
+	public TileArchive(File archive) throws IOException {
+		file = new MappedFile(archive);
+
+		if(file.size() < HEADER || file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+			throw new IOException(archive + " is not a tile archive");
+
+		int count = file.getInt(8);
+		keys = new long[count];
+		offsets = new long[count];
+		lengths = new int[count];
+		for(int i=0; i<count; i++) {
+			long entry = HEADER + (long)i*ENTRY;
+			keys[i] = file.getLong(entry);
+			offsets[i] = file.getLong(entry + 8);
+			lengths[i] = file.getInt(entry + 16);
+		}
+	}
+
+	private static long key(int zoom, int x, int y) {
+		return ((long)zoom << 58) | ((long)x << 29) | y;
+	}
+
+	public boolean load(int zoom, int x, int y, Tile out) throws IOException {
+		int i = Arrays.binarySearch(keys, key(zoom, x, y));
+		if(i < 0)
+			return false;
+
+		byte[] png = new byte[lengths[i]];
+		file.get(offsets[i], png, 0, png.length);
+		Terrarium.decode(png, zoom, out);
+		return true;
+	}
+
+	public String cacheName() {
+		return null;
+	}
+
+	//packs <dir>/zoom/x/y.png into an archive
+	public static void pack(File dir, File archive) throws IOException {
+		List<long[]> tiles = new ArrayList<long[]>(); //key, length
+		List<File> files = new ArrayList<File>();
+
+		File[] zooms = dir.listFiles();
+		if(zooms == null)
+			throw new IOException(dir + " is not a directory");
+
+		for(File z: zooms) {
+			File[] xs = z.listFiles();
+			if(xs == null || !z.getName().matches("\\d+"))
+				continue;
+			for(File x: xs) {
+				File[] ys = x.listFiles();
+				if(ys == null || !x.getName().matches("\\d+"))
+					continue;
+				for(File y: ys) {
+					String name = y.getName();
+					if(!name.matches("\\d+\\.png"))
+						continue;
+					if(y.length() > MappedFile.OVERLAP)
+						throw new IOException(y + " is too big for a tile");
+
+					tiles.add(new long[] {key(Integer.parseInt(z.getName()), Integer.parseInt(x.getName()), Integer.parseInt(name.substring(0, name.length() - 4))), files.size()});
+					files.add(y);
+				}
+			}
+		}
+
+		tiles.sort((a, b) -> Long.compare(a[0], b[0]));
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archive), 1<<16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tiles.size());
+
+			long offset = HEADER + (long)tiles.size()*ENTRY;
+			for(long[] tile: tiles) {
+				long length = files.get((int)tile[1]).length();
+				out.writeLong(tile[0]);
+				out.writeLong(offset);
+				out.writeInt((int)length);
+				offset += length;
+			}
+
+			for(long[] tile: tiles)
+				Files.copy(files.get((int)tile[1]).toPath(), out);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2) {
+			System.out.println("Usage: TileArchive <terrarium directory> <archive>");
+			return;
+		}
+		pack(new File(args[0]), new File(args[1]));
+	}
+}
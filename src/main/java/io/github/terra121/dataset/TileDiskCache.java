@@ -0,0 +1,48 @@
+package io.github.terra121.dataset;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.terra121.TerraConfig;
+
+//second level cache that keeps decoded tiles on disk, laid out as <dir>/<dataset>/<x>/<y>.tile
+public class TileDiskCache extends DiskCache {
+	private static final int MAGIC = 0x54313231; //"T121"
+	private static final int VERSION = 2;
+
+	private static TileDiskCache instance;
+
+	public TileDiskCache(File dir, long maxBytes) {
+		super(dir, maxBytes, ".tile");
+	}
+
+	//shared instance configured from TerraConfig, null if disabled
+	public static synchronized TileDiskCache get() {
+		if(TerraConfig.diskCacheSize <= 0)
+			return null;
+
+		if(instance == null)
+			instance = new TileDiskCache(new File(TerraConfig.cacheDirectory, "tiles"), TerraConfig.diskCacheSize*1024L*1024L);
+		return instance;
+	}
+
+	//fills the tile from disk, false if it isn't cached (or was saved in a different format)
+	public boolean load(String dataset, int x, int y, Tile tile) {
+		return load(dataset + "/" + x + "/" + y, in -> {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != tile.depth() || in.readInt() != tile.length())
+				throw new IOException("Bad tile header");
+
+			tile.read(in);
+		});
+	}
+
+	public void save(String dataset, int x, int y, Tile tile) {
+		save(dataset + "/" + x + "/" + y, out -> {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(tile.depth());
+			out.writeInt(tile.length());
+			tile.write(out);
+		});
+	}
+}
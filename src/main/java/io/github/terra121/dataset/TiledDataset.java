@@ -1,16 +1,67 @@
 package io.github.terra121.dataset;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import io.github.terra121.TerraConfig;
+import io.github.terra121.TerraMod;
 import io.github.terra121.projection.GeographicProjection;
 
 public abstract class TiledDataset {
 	protected abstract double dataToDouble(int data);
-	protected abstract int[] request(Coord tile);
+	protected abstract Tile request(Coord tile);
 	
-	//TODO: better datatypes
-    private LinkedHashMap<Coord, int[]> cache;
+	//storage for one tile, subclasses should pick the smallest format their encoding fits in
+	protected Tile newTile() {
+		return new Tile.Ints(width*height);
+	}
+	
+	//name used to store this dataset's tiles in the disk cache, null to only keep them in memory
+	protected String diskCacheName() {
+		return null;
+	}
+	
+	//how many more times a tile is requested, with back off in between, after request gave up on it
+	//until then it reads as blank instead of holding up whoever asked, afterwards it stays blank
+	protected int retries() {
+		return 0;
+	}
+	
+	//largest pixel window estimateGrid will share between samples, anything more spread out (very scaled down worlds) is sampled point by point
+	private static final int MAX_WINDOW = 128*128;
+	
+	//shared by all datasets so the number of concurrent downloads stays bounded
+	private static final ThreadPoolExecutor FETCH_POOL = new ThreadPoolExecutor(TerraConfig.downloadThreads, TerraConfig.downloadThreads,
+			0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+		Thread t = new Thread(r, "terra121 tile fetch");
+		t.setDaemon(true);
+		return t;
+	});
+	
+	//prefetches waiting for a download thread, past this they're skipped (the player has probably flown away from them already)
+	private static final int MAX_QUEUED = 64;
+	
+    //tiles are keyed by their x and y packed into a long, see key()
+    private StripedCache<Long, Tile> cache;
+    private final long layer;
+    
+    //tiles currently being fetched, so everyone asking for the same tile waits on the same download
+    private ConcurrentHashMap<Long, FutureTask<Tile>> inFlight;
+    
+    //failed requests in a row per tile, and the tiles waiting out their back off before the next one
+    private ConcurrentHashMap<Long, Integer> failures;
+    private Set<Long> backingOff;
+    private volatile Tile blank; //what those read as meanwhile, never written to
+    
+    //per thread scratch space so lookups don't allocate anything
+    private ThreadLocal<Lookup> lookups;
+    
     protected int numcache;
     protected final int width;
     protected final int height;
@@ -27,8 +78,19 @@ public abstract class TiledDataset {
     public boolean smooth;
 
     public TiledDataset(int width, int height, int numcache, GeographicProjection proj, double projScaleX, double projScaleY, boolean smooth) {
-        cache = new LinkedHashMap<Coord, int[]>();
+        this(width, height, newCache(numcache, width, height), 0, proj, projScaleX, projScaleY, smooth);
         this.numcache = numcache;
+    }
+
+    //for datasets sharing one memory budget (see newCache), each keeps its tiles under its own layer of the cache
+    //tile x has to stay below 2^24 for the layers not to run into each other
+    protected TiledDataset(int width, int height, StripedCache<Long, Tile> cache, int layer, GeographicProjection proj, double projScaleX, double projScaleY, boolean smooth) {
+        this.cache = cache;
+        this.layer = (long)layer << 56;
+        inFlight = new ConcurrentHashMap<Long, FutureTask<Tile>>();
+        failures = new ConcurrentHashMap<Long, Integer>();
+        backingOff = ConcurrentHashMap.newKeySet();
+        lookups = ThreadLocal.withInitial(Lookup::new);
         this.width = width;
         this.height = height;
         this.projection = proj;
@@ -46,6 +108,11 @@ public abstract class TiledDataset {
     public TiledDataset(int width, int height, int numcache, GeographicProjection proj, double projScaleX, double projScaleY) {
     	this(width, height, numcache, proj, projScaleX, projScaleY, false);
     }
+
+    //numcache is how many int tiles worth of memory we can use, smaller tile formats let more fit
+    public static StripedCache<Long, Tile> newCache(int numcache, int width, int height) {
+        return new StripedCache<Long, Tile>(numcache/8, numcache*4L*width*height, Tile::byteSize);
+    }
 	
     public double estimateLocal(double lon, double lat) {
 
@@ -55,42 +122,61 @@ public abstract class TiledDataset {
         }
 
         //project coords
-        double[] floatCoords = projection.fromGeo(lon, lat);
+        double[] floatCoords = lookups.get().projected;
+        projection.fromGeo(lon, lat, floatCoords);
 
         if(smooth)
-        	return estimateSmooth(floatCoords);
-        return estimateBasic(floatCoords);
+        	return estimateSmooth(floatCoords[0]*scaleX, floatCoords[1]*scaleY);
+        return estimateBasic(floatCoords[0]*scaleX, floatCoords[1]*scaleY);
+    }
+    
+    //whether estimateLocal here would be answered from memory without waiting on a tile
+    public boolean isCached(double lon, double lat) {
+        if(!(lon <= 180 && lon >= -180 && lat <= 85 && lat >= -85))
+            return true;
+
+        double[] floatCoords = lookups.get().projected;
+        projection.fromGeo(lon, lat, floatCoords);
+
+        //pixels the estimate reads, see estimateSmooth and estimateBasic
+        double off = smooth?0.5:0;
+        int reach = smooth?2:1;
+        int x = (int)(floatCoords[0]*scaleX - off);
+        int y = (int)(floatCoords[1]*scaleY - off);
+
+        return cache.containsKey(key(x/width, y/height)) && cache.containsKey(key((x+reach)/width, y/height))
+                && cache.containsKey(key(x/width, (y+reach)/height)) && cache.containsKey(key((x+reach)/width, (y+reach)/height));
     }
     
     //new style
-    protected double estimateSmooth(double[] floatCoords) {
-        
-        double X = floatCoords[0]*scaleX - 0.5;
-        double Y = floatCoords[1]*scaleY - 0.5;
+    protected double estimateSmooth(double X, double Y) {
+        X -= 0.5;
+        Y -= 0.5;
 
         //get the corners surrounding this block
-        Coord coord = new Coord((int)X, (int)Y);
+        int x = (int)X;
+        int y = (int)Y;
+        
+        double u = X-x;
+        double v = Y-y;
+
+        double v00 = getOfficialHeight(x, y);
+        double v10 = getOfficialHeight(x+1, y);
+        double v20 = getOfficialHeight(x+2, y);
+        double v21 = getOfficialHeight(x+2, y+1);
+        double v11 = getOfficialHeight(x+1, y+1);
+        double v01 = getOfficialHeight(x, y+1);
+        double v02 = getOfficialHeight(x, y+2);
+        double v12 = getOfficialHeight(x+1, y+2);
+        double v22 = getOfficialHeight(x+2, y+2);
         
-        double u = X-coord.x;
-        double v = Y-coord.y;
-
-        double v00 = getOfficialHeight(coord);
-        coord.x++;
-        double v10 = getOfficialHeight(coord);
-        coord.x++;
-        double v20 = getOfficialHeight(coord);
-        coord.y++;
-        double v21 = getOfficialHeight(coord);
-        coord.x--;
-        double v11 = getOfficialHeight(coord);
-        coord.x--;
-        double v01 = getOfficialHeight(coord);
-        coord.y++;
-        double v02 = getOfficialHeight(coord);
-        coord.x++;
-        double v12 = getOfficialHeight(coord);
-        coord.x++;
-        double v22 = getOfficialHeight(coord);
+        return smoothBlend(u, v, v00, v01, v02, v10, v11, v12, v20, v21, v22);
+    }
+    
+    private static double smoothBlend(double u, double v,
+            double v00, double v01, double v02,
+            double v10, double v11, double v12,
+            double v20, double v21, double v22) {
         
         //Compute smooth 9-point interpolation on this block
         double result = SmoothBlend.compute(u, v, v00, v01, v02, v10, v11, v12, v20, v21, v22);
@@ -102,54 +188,266 @@ public abstract class TiledDataset {
     }
     
     //old style
-    protected double estimateBasic(double[] floatCoords) {
-        double X = floatCoords[0]*scaleX;
-        double Y = floatCoords[1]*scaleY;
-
+    protected double estimateBasic(double X, double Y) {
         //get the corners surrounding this block
-        Coord coord = new Coord((int)X, (int)Y);
+        int x = (int)X;
+        int y = (int)Y;
         
-        double u = X-coord.x;
-        double v = Y-coord.y;
+        double u = X-x;
+        double v = Y-y;
         
-        double ll = getOfficialHeight(coord);
-        coord.x++;
-        double lr = getOfficialHeight(coord);
-        coord.y++;
-        double ur = getOfficialHeight(coord);
-        coord.x--;
-        double ul = getOfficialHeight(coord);
+        double ll = getOfficialHeight(x, y);
+        double lr = getOfficialHeight(x+1, y);
+        double ur = getOfficialHeight(x+1, y+1);
+        double ul = getOfficialHeight(x, y+1);
 
         //get perlin style interpolation on this block
         return (1-v)*(ll*(1-u) + lr*u) + (ul*(1-u) + ur*u)*v;
     }
 
-	protected double getOfficialHeight(Coord coord) {
+    //estimates a whole batch of points at once, geo holds lon,lat pairs and out gets one value per pair
+    //every pixel around the batch is only looked up once and shared between samples, which matters a lot
+    //when a pixel is bigger than a block (and for Heights, where every pixel can mean extra water lookups)
+    public void estimateGrid(double[] geo, double[] out, int count) {
+        Lookup lookup = lookups.get();
+        double[] proj = lookup.projected;
+        double[] gx = lookup.gridX = grow(lookup.gridX, count);
+        double[] gy = lookup.gridY = grow(lookup.gridY, count);
+        
+        double off = smooth?0.5:0;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        
+        for(int i=0; i<count; i++) {
+            double lon = geo[2*i];
+            double lat = geo[2*i+1];
+            
+            //basic bound check
+            if(!(lon <= 180 && lon >= -180 && lat <= 85 && lat >= -85)) {
+                gx[i] = Double.NaN;
+                continue;
+            }
+            
+            projection.fromGeo(lon, lat, proj);
+            gx[i] = proj[0]*scaleX;
+            gy[i] = proj[1]*scaleY;
+            
+            int x = (int)(gx[i]-off);
+            int y = (int)(gy[i]-off);
+            if(x<minX) minX = x;
+            if(x>maxX) maxX = x;
+            if(y<minY) minY = y;
+            if(y>maxY) maxY = y;
+        }
+        
+        //pixels needed around the samples, the window is filled in lazily so only pixels actually used get looked up
+        int reach = smooth?2:1;
+        long w = (long)maxX + reach - minX + 1;
+        long h = (long)maxY + reach - minY + 1;
+        boolean windowed = minX <= maxX && w*h <= MAX_WINDOW;
+        
+        if(windowed) {
+            lookup.window = grow(lookup.window, (int)(w*h));
+            lookup.windowX = minX;
+            lookup.windowY = minY;
+            lookup.windowWidth = (int)w;
+            Arrays.fill(lookup.window, 0, (int)(w*h), Double.NaN);
+        }
+        
+        for(int i=0; i<count; i++) {
+            if(gx[i] != gx[i])
+                out[i] = -2;
+            else if(!windowed)
+                out[i] = smooth?estimateSmooth(gx[i], gy[i]):estimateBasic(gx[i], gy[i]);
+            else if(smooth) {
+                double X = gx[i] - 0.5;
+                double Y = gy[i] - 0.5;
+                int x = (int)X;
+                int y = (int)Y;
+                
+                out[i] = smoothBlend(X-x, Y-y,
+                        windowed(lookup, x, y), windowed(lookup, x, y+1), windowed(lookup, x, y+2),
+                        windowed(lookup, x+1, y), windowed(lookup, x+1, y+1), windowed(lookup, x+1, y+2),
+                        windowed(lookup, x+2, y), windowed(lookup, x+2, y+1), windowed(lookup, x+2, y+2));
+            } else {
+                int x = (int)gx[i];
+                int y = (int)gy[i];
+                double u = gx[i]-x;
+                double v = gy[i]-y;
+                
+                double ll = windowed(lookup, x, y);
+                double lr = windowed(lookup, x+1, y);
+                double ur = windowed(lookup, x+1, y+1);
+                double ul = windowed(lookup, x, y+1);
+                out[i] = (1-v)*(ll*(1-u) + lr*u) + (ul*(1-u) + ur*u)*v;
+            }
+        }
+    }
+    
+    private double windowed(Lookup lookup, int x, int y) {
+        int idx = (y-lookup.windowY)*lookup.windowWidth + x-lookup.windowX;
+        double v = lookup.window[idx];
+        if(v != v) //not looked up yet
+            lookup.window[idx] = v = getOfficialHeight(x, y);
+        return v;
+    }
+    
+    private static double[] grow(double[] arr, int size) {
+        return arr!=null && arr.length>=size?arr:new double[size];
+    }
 
-        Coord tile = coord.tile();
+	protected double getOfficialHeight(int x, int y) {
 
         //proper bound check for x
-        if(coord.x<=bounds[0] || coord.x>=bounds[2])
+        if(x<=bounds[0] || x>=bounds[2])
             return 0;
 
+        Tile img = getTile(x/width, y/height);
+        
+        //get coord from tile and convert to meters (divide by 256.0)
+        return dataToDouble(img.get(width*(y%height) + x%width));
+    }
+
+    private long key(int tx, int ty) {
+        return (((long)tx << 32) | (ty & 0xffffffffL)) ^ layer;
+    }
+
+    private Tile getTile(int tx, int ty) {
+        long key = key(tx, ty);
+
+        //consecutive samples almost always land on the same tile, skip the cache when they do
+        Lookup lookup = lookups.get();
+        if(lookup.tile != null && lookup.key == key)
+            return lookup.tile;
+
         //is the tile that this coord lies on already downloaded?
-        int[] img = cache.get(tile);
+        Tile img = cache.get(key);
+
+        //waiting to be tried again, not worth remembering on this thread as it won't stay blank
+        if(img == null && backingOff.contains(key))
+            return blank();
 
         if(img == null) {
-            //download tile
-            img = request(tile);
-            cache.put(tile, img); //save to cache cause chances are it will be needed again soon
+            FutureTask<Tile> task = fetchAsync(key, tx, ty);
+
+            //first touch of this tile, the neighbors will probably be needed soon so start getting them in the background
+            for(int x=-1; x<=1; x++)
+                for(int y=-1; y<=1; y++)
+                    if(x!=0 || y!=0)
+                        prefetch(tx+x, ty+y);
+
+            //run it here if no worker has picked it up yet, so we only ever wait on the tile we need
+            task.run();
+
+            try {
+                img = task.get();
+            } catch (InterruptedException | ExecutionException e) {
+                TerraMod.LOGGER.error("Failed to get tile (" + tx + ", " + ty + ") : " + e);
+                img = newTile();
+            }
+
+            if(img == blank)
+                return img;
+        }
+
+        lookup.key = key;
+        lookup.tile = img;
+        return img;
+    }
+
+    private FutureTask<Tile> fetchAsync(long key, int tx, int ty) {
+        return inFlight.computeIfAbsent(key, k -> new FutureTask<Tile>(() -> load(k, tx, ty)));
+    }
+
+    private void prefetch(int tx, int ty) {
+        //don't go asking for tiles that don't exist
+        if(tx < Math.floor(bounds[0]/width) || tx >= Math.ceil(bounds[2]/width)
+                || ty < Math.floor(bounds[1]/height) || ty >= Math.ceil(bounds[3]/height))
+            return;
+
+        if(FETCH_POOL.getQueue().size() > MAX_QUEUED)
+            return;
+
+        long key = key(tx, ty);
+        if(!cache.containsKey(key) && !inFlight.containsKey(key) && !backingOff.contains(key))
+            FETCH_POOL.execute(fetchAsync(key, tx, ty));
+    }
+
+    //runs on whichever thread gets to the fetch task first
+    private Tile load(Long key, int tx, int ty) {
+        try {
+            Tile img = cache.get(key);
+
+            if(img == null) {
+                img = fetch(new Coord(tx, ty));
 
-            //cache is too large, remove the least recent element
-            if(cache.size() > numcache) {
-                Iterator<?> it = cache.values().iterator();
-                it.next();
-                it.remove();
+                if(img == null) {
+                    int failed = failures.merge(key, 1, Integer::sum);
+                    if(failed <= retries()) {
+                        //same back off as osm downloads, on the retry thread so nobody generating has to sit through it
+                        backingOff.add(key);
+                        OpenStreetMaps.RETRY_SCHEDULER.schedule(() -> {
+                            FutureTask<Tile> task = fetchAsync(key, tx, ty);
+                            backingOff.remove(key);
+                            FETCH_POOL.execute(task);
+                        }, OpenStreetMaps.retryDelay(failed - 1), TimeUnit.MILLISECONDS);
+                        return blank();
+                    }
+                    TerraMod.LOGGER.error("Failed to get tile (" + tx + ", " + ty + ") " + failed + " times, it will be left at 0");
+                    img = newTile(); //given up, it stays blank until it drops out of the cache
+                }
+
+                failures.remove(key);
+                cache.put(key, img); //save to cache cause chances are it will be needed again soon
             }
+            return img;
+        } finally {
+            //the tile is in the cache now (or failed), so new requests shouldn't reuse this task
+            inFlight.remove(key);
         }
+    }
+
+    //try the disk cache before downloading the tile, null if the download failed
+    private Tile fetch(Coord tile) {
+        TileDiskCache disk = diskCacheName()==null?null:TileDiskCache.get();
+
+        Tile img = null;
+        if(disk != null) {
+            img = newTile();
+            if(!disk.load(diskCacheName(), tile.x, tile.y, img))
+                img = null;
+        }
+
+        if(img == null) {
+            img = request(tile);
+
+            if(img == null) //failed download, don't save it so it gets tried again next time
+                return null;
+
+            if(disk != null)
+                disk.save(diskCacheName(), tile.x, tile.y, img);
+        }
+        return img;
+    }
+
+    private Tile blank() {
+        if(blank == null)
+            blank = newTile();
+        return blank;
+    }
+
+    private static class Lookup {
+        double[] projected = new double[2];
+        long key;
+        Tile tile;
         
-        //get coord from tile and convert to meters (divide by 256.0)
-        return dataToDouble(img[width*(coord.y%height) + coord.x%width]);
+        //estimateGrid scratch space
+        double[] gridX;
+        double[] gridY;
+        double[] window;
+        int windowX;
+        int windowY;
+        int windowWidth;
     }
 
 	//integer coordinate class for tile coords and pixel coords
@@ -157,10 +455,6 @@ public abstract class TiledDataset {
         public int x;
         public int y;
 
-        private Coord tile() {
-            return new Coord(x/width, y/height);
-        }
-
         private Coord(int x, int y) {
             this.x = x;
             this.y = y;
@@ -1,15 +1,9 @@
 package io.github.terra121.dataset;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
-
-import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.common.bytesource.ByteSourceInputStream;
-import org.apache.commons.imaging.formats.tiff.TiffImageParser;
 
 import io.github.terra121.TerraConfig;
 import io.github.terra121.TerraMod;
@@ -30,8 +24,17 @@ public class Trees extends TiledDataset {
 		return data/100.0;
 	}
 
-	protected int[] request(Coord place) {
-		int out[] = new int[256 * 256];
+	protected String diskCacheName() {
+		return "treecover";
+	}
+
+	//percentages fit in a byte
+	protected Tile newTile() {
+		return new Tile.Bytes(width*height);
+	}
+
+	protected Tile request(Coord place) {
+		Tile out = newTile();
 
         for(int i=0; i<5; i++) {
 
@@ -46,29 +49,20 @@ public class Trees extends TiledDataset {
                 con.addRequestProperty("User-Agent", TerraMod.USERAGENT);
                 is = con.getInputStream();
                 
-                ByteSourceInputStream by = new ByteSourceInputStream(is, "shits and giggles");
-                TiffImageParser p = new TiffImageParser();
-                BufferedImage img = p.getBufferedImage(by, new HashMap<String,Object>());
+                Tiff img = Tiff.read(is);
                 is.close();
                 is = null;
                 
-                if(img == null) {
-                    throw new IOException("Invalid image file");
+                if(img.width != width || img.height != height) {
+                    throw new IOException("Tree cover tile is " + img.width + "x" + img.height);
                 }
 
-                //compile height data from image, stored in 256ths of a meter units
-                img.getRGB(0, 0, 256, 256, out, 0, 256);
-
-                for (int x = 0; x < img.getWidth(); x++) {
-                    for (int y = 0; y < img.getHeight(); y++) { 	
-                        int c = y * 256 + x;
-                        out[c] = out[c]&0xff;
-                    }
-                }
+                //single band of cover percentages
+                img.band(out);
 
                 return out;
 
-            } catch (IOException | ImageReadException ioe) {
+            } catch (IOException ioe) {
                 if(is!=null) {
                     try {
                         is.close();
@@ -80,7 +74,7 @@ public class Trees extends TiledDataset {
         }
 
         TerraMod.LOGGER.error("Failed too many times, trees will not spawn. ");
-        return out;
+        return null;
 	}
 
 }
@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.Arrays;
 
@@ -24,15 +23,14 @@ public class Water {
 	public int hres;
 	
 	public Water(OpenStreetMaps osm, int horizontalres) throws IOException {
-		InputStream is = getClass().getClassLoader().getResourceAsStream("assets/terra121/data/ground.dat");
-		grounding = new WaterGround(is);
+		grounding = new WaterGround();
 		this.osm = osm;
 		this.hres = horizontalres;
 	}
 	
 	public byte getState(double lon, double lat) {
 		
-		Region region = osm.regionCache(new double[] {lon,lat});
+		Region region = osm.regionCache(lon, lat);
 		
 		//default if download failed
 		if(region==null)
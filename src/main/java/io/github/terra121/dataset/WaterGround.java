@@ -1,34 +1,28 @@
 package io.github.terra121.dataset;
 
-import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.DataInputStream;
 
-import javax.imageio.ImageIO;
-
 public class WaterGround {
-	public RandomAccessRunlength<Byte> data;
+	public ByteRunlength data;
 	private int width;
 	private int height;
+	static final String RESOURCE = "assets/terra121/data/ground.dat";
 	
-	public WaterGround(InputStream input) throws IOException {
-		data = new RandomAccessRunlength<Byte>();
-		DataInputStream in = new DataInputStream(input);
-
-		//save some memory by tying the same bytes to the same object (idk if java does this already) //TODO: static share with Soil.java
-		Byte[] bytes = new Byte[256];
-		for (int x = 0; x < bytes.length; x++) {
-			bytes[x] = (byte) x;
-		}
-
-		while(in.available()>0) {
-			int v = in.readInt();
-			data.addRun(bytes[v>>>30], v&((1<<30)-1));
-		}
+	//the bundled ground data, mapped from the cache directory
+	public WaterGround() throws IOException {
+		this(ByteRunlength.compiled(RESOURCE, WaterGround::parse));
+	}
 
-		in.close();
+	public WaterGround(InputStream input) throws IOException {
+		this(parse(input));
 		input.close();
+	}
+
+	public WaterGround(ByteRunlength data) {
+		this.data = data;
 
 		height = (int)Math.sqrt(data.size()/2);
 		width = height*2;
@@ -36,6 +30,25 @@ public class WaterGround {
 		//System.out.println(data.size()+" "+height);
 	}
 
+	static ByteRunlength parse(InputStream input) throws IOException {
+		ByteRunlength.Builder runs = new ByteRunlength.Builder();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+
+		//every int is a run, state in the top 2 bits and length in the rest, up to the end of the stream
+		//(available() can't tell where that is, it may well be 0 before the end of a jar entry)
+		byte[] run = new byte[4];
+		while(true) {
+			int n = in.read(run);
+			if(n < 0)
+				break;
+			if(n < 4)
+				in.readFully(run, n, 4 - n); //throws if the stream ends inside a run
+			int v = (run[0]&0xff)<<24 | (run[1]&0xff)<<16 | (run[2]&0xff)<<8 | (run[3]&0xff);
+			runs.addRun((byte)(v>>>30), v&((1<<30)-1));
+		}
+		return runs.build();
+	}
+
 	public int getWidth() {
 		return width;
 	}
@@ -7,8 +7,7 @@ import java.util.Set;
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.world.ICube;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.ICubicPopulator;
-import io.github.terra121.dataset.Trees;
-import io.github.terra121.projection.GeographicProjection;
+import io.github.terra121.EarthTerrainProcessor;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
@@ -19,13 +18,10 @@ import net.minecraft.world.gen.feature.WorldGenAbstractTree;
 
 public class EarthTreePopulator implements ICubicPopulator {
 
-	Trees trees;
-	
 	public Set<Block> extraSurface;
-	private GeographicProjection projection;
+	private EarthTerrainProcessor terrain;
 	
-	public EarthTreePopulator(GeographicProjection proj) {
-		trees = new Trees();
+	public EarthTreePopulator(EarthTerrainProcessor terrain) {
 		extraSurface = new HashSet<Block>();
 		extraSurface.add(Blocks.CLAY);
 		extraSurface.add(Blocks.RED_SANDSTONE);
@@ -35,7 +31,7 @@ public class EarthTreePopulator implements ICubicPopulator {
 		extraSurface.add(Blocks.SAND);
 		extraSurface.add(Blocks.SNOW);
 		extraSurface.add(Blocks.MYCELIUM);
-		projection = proj;
+		this.terrain = terrain;
 	}
 	
 	private double atanh(double x) {
@@ -45,9 +41,7 @@ public class EarthTreePopulator implements ICubicPopulator {
 	@Override
 	public void generate(World world, Random random, CubePos pos, Biome biome) {
 
-		double[] projected = projection.toGeo(pos.getX()*16, pos.getZ()*16);
-		
-	    double canopy = trees.estimateLocal(projected[0], projected[1]);
+	    double canopy = terrain.getCanopy(pos.getX(), pos.getZ());
 	    
 	    //got this fun formula messing around with data on desmos, estimate of tree cover -> number
 	    int treeCount = 30; //max so it doesn't go to infinity (which would technically be required to guarantee full coverage, but no)
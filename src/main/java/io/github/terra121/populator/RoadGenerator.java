@@ -1,15 +1,13 @@
 package io.github.terra121.populator;
 
 import java.util.Random;
-import java.util.Set;
 import java.util.function.BiFunction;
 
 import io.github.opencubicchunks.cubicchunks.api.util.CubePos;
 import io.github.opencubicchunks.cubicchunks.api.worldgen.populator.ICubicPopulator;
+import io.github.terra121.EarthTerrainProcessor;
 import io.github.terra121.TerraMod;
-import io.github.terra121.dataset.Heights;
 import io.github.terra121.dataset.OpenStreetMaps;
-import io.github.terra121.projection.GeographicProjection;
 import net.minecraft.block.BlockColored;
 import net.minecraft.block.BlockLiquid;
 import net.minecraft.block.state.IBlockState;
@@ -28,30 +26,31 @@ public class RoadGenerator implements ICubicPopulator {
     private static final IBlockState WATER_BEACH = Blocks.DIRT.getDefaultState();
 
     private OpenStreetMaps osm;
-    private Heights heights;
-    private GeographicProjection projection;
+    private EarthTerrainProcessor terrain;
 
     // only use for roads with markings
     public double calculateRoadWidth(int w, int l) {
         return Math.ceil(((1+w)*l+l)/2);
     }
 
-    public RoadGenerator(OpenStreetMaps osm, Heights heights, GeographicProjection proj) {
+    public RoadGenerator(OpenStreetMaps osm, EarthTerrainProcessor terrain) {
         this.osm = osm;
-        this.heights = heights;
-        projection = proj;
+        this.terrain = terrain;
     }
 
     public void generate(World world, Random rand, CubePos pos, Biome biome) {
     	
     	int cubeX = pos.getX(), cubeY = pos.getY(), cubeZ = pos.getZ();
     	
-        Set<OpenStreetMaps.Edge> edges = osm.chunkStructures(cubeX, cubeZ);
-		
-        if(edges!=null) { 
+        OpenStreetMaps.EdgeCursor e = osm.loadedStructures(cubeX, cubeZ);
+        
+        //never wait on overpass while populating, the roads go in from the server tick once the regions are there
+        if(e!=null && e.loading)
+        	terrain.defer(pos, EarthTerrainProcessor.ROADS);
+        else if(e!=null) { 
         	
         	// rivers done before roads
-        	for(OpenStreetMaps.Edge e: edges) {
+        	while(e.next()) {
 	            if(e.type == OpenStreetMaps.Type.RIVER) {
 	            	placeEdge(e, world, cubeX, cubeY, cubeZ, 5, (dis, bpos) -> riverState(world, dis, bpos));
 	            }
@@ -66,7 +65,8 @@ public class RoadGenerator implements ICubicPopulator {
 
             // TODO simplify road width
 
-	        for(OpenStreetMaps.Edge e: edges) {
+	        e.reset();
+	        while(e.next()) {
 	            // this will obviously be deleted once the levels actually do something
                 // System.out.println("Generating road on level: " + e.layer_number);
                 if (e.attribute != OpenStreetMaps.Attributes.ISTUNNEL) {
@@ -109,7 +109,7 @@ public class RoadGenerator implements ICubicPopulator {
         else return WATER_SOURCE;
     }
     
-    private void placeEdge(OpenStreetMaps.Edge e, World world, int cubeX, int cubeY, int cubeZ, double r, BiFunction<Double, BlockPos, IBlockState> state) {
+    private void placeEdge(OpenStreetMaps.EdgeCursor e, World world, int cubeX, int cubeY, int cubeZ, double r, BiFunction<Double, BlockPos, IBlockState> state) {
         double x0 = 0;
         double b = r;
         if(Math.abs(e.slope)>=0.000001) {
@@ -180,8 +180,7 @@ public class RoadGenerator implements ICubicPopulator {
                 	distance += t*t;
                 	distance = Math.sqrt(distance);
 
-                    double[] geo = projection.toGeo(mainX + cubeX*(16), mainZ + cubeZ*(16));
-                    int y = (int)Math.floor(heights.estimateLocal(geo[0], geo[1]) - cubeY*16);
+                    int y = (int)Math.floor(terrain.getHeight(mainX + cubeX*(16), mainZ + cubeZ*(16)) - cubeY*16);
 
                     if (y >= 0 && y < 16) { //if not in this range, someone else will handle it
                     	
@@ -54,6 +54,20 @@ public class GeographicProjection {
 		return new double[] {lon, lat};
 	}
 	
+	//same as toGeo and fromGeo but write into out instead of allocating, for hot loops
+	//projections that are used a lot should override these
+	public void toGeo(double x, double y, double[] out) {
+		double[] p = toGeo(x, y);
+		out[0] = p[0];
+		out[1] = p[1];
+	}
+	
+	public void fromGeo(double lon, double lat, double[] out) {
+		double[] p = fromGeo(lon, lat);
+		out[0] = p[0];
+		out[1] = p[1];
+	}
+	
 	public double metersPerUnit() {
 		return 100000;
 	}
@@ -8,4 +8,14 @@ public class ImageProjection extends GeographicProjection {
 	public double[] fromGeo(double lon, double lat) {
 		return new double[] {lon+180, 90-lat};
 	}
+	
+	public void toGeo(double x, double y, double[] out) {
+		out[0] = x-180;
+		out[1] = 90-y;
+	}
+	
+	public void fromGeo(double lon, double lat, double[] out) {
+		out[0] = lon+180;
+		out[1] = 90-lat;
+	}
 }
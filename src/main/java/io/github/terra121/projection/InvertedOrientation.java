@@ -18,6 +18,17 @@ public class InvertedOrientation extends ProjectionTransform {
 		return p;
 	}
 	
+	public void toGeo(double x, double y, double[] out) {
+		input.toGeo(y, x, out);
+	}
+	
+	public void fromGeo(double lon, double lat, double[] out) {
+		input.fromGeo(lon, lat, out);
+		double t = out[0];
+		out[0] = out[1];
+		out[1] = t;
+	}
+	
 	public double[] bounds() {
 		double[] b = input.bounds();
 		return new double[] {b[1],b[0],b[3],b[2]};
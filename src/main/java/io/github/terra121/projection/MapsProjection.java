@@ -19,6 +19,16 @@ public class MapsProjection extends GeographicProjection {
 			};
 	}
 	
+	public void toGeo(double x, double y, double[] out) {
+		out[0] = (x*TAU - Math.PI)/TO_RADIANS;
+		out[1] = (Math.atan(Math.exp(Math.PI - y*TAU))*2 - Math.PI/2)/TO_RADIANS;
+	}
+	
+	public void fromGeo(double lon, double lat, double[] out) {
+		out[0] = (lon*TO_RADIANS + Math.PI)/TAU;
+		out[1] = (Math.PI - Math.log( Math.tan((Math.PI/2 + lat*TO_RADIANS)/2) ) ) / TAU;
+	}
+	
 	public double[] bounds() {
 		return new double[]{0,0,1,1};
 	}
@@ -25,6 +25,16 @@ public class ScaleProjection extends ProjectionTransform {
 		return p;
 	}
 	
+	public void toGeo(double x, double y, double[] out) {
+		input.toGeo(x/scaleX, y/scaleY, out);
+	}
+	
+	public void fromGeo(double lon, double lat, double[] out) {
+		input.fromGeo(lon, lat, out);
+		out[0] *= scaleX;
+		out[1] *= scaleY;
+	}
+	
 	public boolean upright() {
 		return (scaleY<0)^input.upright();
 	}
@@ -16,6 +16,15 @@ public class UprightOrientation extends ProjectionTransform {
 		return p;
 	}
 	
+	public void toGeo(double x, double y, double[] out) {
+		input.toGeo(x, -y, out);
+	}
+	
+	public void fromGeo(double lon, double lat, double[] out) {
+		input.fromGeo(lon, lat, out);
+		out[1] = -out[1];
+	}
+	
 	public boolean upright() {
 		return !input.upright();
 	}
@@ -0,0 +1,153 @@
+package io.github.terra121;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.terra121.dataset.ByteRunlength;
+import io.github.terra121.dataset.Climate;
+import io.github.terra121.dataset.Soil;
+import io.github.terra121.projection.GeographicProjection;
+import net.minecraft.init.Biomes;
+import net.minecraft.init.Bootstrap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.biome.Biome;
+
+//chunks are classified from their interpolated corners, every block has to come out as if it was projected and classified on its own
+public class EarthBiomeProviderTest {
+	//soil types whose biomes differ, some of them by climate too
+	private static final byte[] SOILS = {1, 3, 10, 11, 15, 29, 50, 52, 81, 13};
+
+	private static final double LON = 10, LAT = 45;
+	private static final int CHUNK_X = 10, CHUNK_Z = 12; //well away from null island
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+	private static String cacheDirectory;
+
+	private static EarthBiomeProvider biomes;
+	private static AtomicInteger projectedBlocks = new AtomicInteger(); //blocks projected one by one instead of interpolated
+
+	@BeforeClass
+	public static void provider() throws IOException {
+		Bootstrap.register();
+		if(TerraMod.LOGGER == null)
+			TerraMod.LOGGER = LogManager.getLogger();
+
+		//the real soil data gets loaded (if it is there) before it is replaced
+		cacheDirectory = TerraConfig.cacheDirectory;
+		TerraConfig.cacheDirectory = folder.getRoot().getPath();
+
+		biomes = new EarthBiomeProvider(Biomes.PLAINS);
+		biomes.climate = new Climate(EarthBiomeProviderTest.class.getClassLoader().getResourceAsStream("assets/terra121/data/climate.dat"));
+
+		//half a soil cell per block, off the cell edges, x east and z south
+		biomes.projection = new GeographicProjection() {
+			public double[] toGeo(double x, double y) {
+				return new double[] {LON + x/60 + 0.004, LAT - y/60 - 0.004};
+			}
+
+			public void toGeo(double x, double y, double[] out) {
+				projectedBlocks.incrementAndGet();
+				out[0] = LON + x/60 + 0.004;
+				out[1] = LAT - y/60 - 0.004;
+			}
+		};
+		biomes.soil = soil();
+	}
+
+	@AfterClass
+	public static void restore() {
+		TerraConfig.cacheDirectory = cacheDirectory;
+	}
+
+	//a different soil type every cell around the test chunk, changing faster along one axis than the other
+	//so swapping them (or the corners) shows
+	private static Soil soil() throws IOException {
+		//the chunk is 8 cells across, starting in the corner of the patch
+		double[] corner = biomes.projection.toGeo(CHUNK_X*16, CHUNK_Z*16);
+		int col0 = (int)(Soil.COLS*(corner[0] + 180)/360), row0 = (int)(Soil.ROWS*(90 - corner[1])/180);
+		ByteRunlength.Builder data = new ByteRunlength.Builder();
+		for(int row=0; row<Soil.ROWS; row++) {
+			if(row < row0 || row >= row0 + 32) {
+				data.addRun((byte)0, Soil.COLS);
+				continue;
+			}
+			data.addRun((byte)0, col0);
+			for(int col=col0; col<col0 + 32; col++)
+				data.add(SOILS[Math.floorMod(col*3 + row*7, SOILS.length)]);
+			data.addRun((byte)0, Soil.COLS - col0 - 32);
+		}
+		return new Soil(data.build());
+	}
+
+	@Test
+	public void interpolated() {
+		//the checks here mean nothing if the chunk fell back to projecting every block
+		projectedBlocks.set(0);
+		biomes.getChunk(CHUNK_X + 1, CHUNK_Z);
+		assertEquals(0, projectedBlocks.get());
+	}
+
+	@Test
+	public void corners() {
+		for(int x: new int[] {0, 15})
+			for(int z: new int[] {0, 15})
+				assertBlock(x, z);
+	}
+
+	@Test
+	public void edges() {
+		for(int i=0; i<16; i++) {
+			assertBlock(i, 0);
+			assertBlock(0, i);
+		}
+	}
+
+	@Test
+	public void chunkLayout() {
+		//x*16 + z, like getBiome reads it
+		Biome[] chunk = biomes.getChunk(CHUNK_X, CHUNK_Z);
+		for(int x=0; x<16; x++)
+			for(int z=0; z<16; z++)
+				assertSame("block " + x + " " + z, expected(x, z), chunk[x*16 + z]);
+	}
+
+	private static void assertBlock(int x, int z) {
+		Biome biome = biomes.getBiome(new BlockPos(CHUNK_X*16 + x, 0, CHUNK_Z*16 + z));
+		assertSame("block " + x + " " + z, expected(x, z), biome);
+	}
+
+	//rules() straight on the block's own projected coordinates
+	private static Biome expected(int x, int z) {
+		double[] geo = biomes.projection.toGeo(CHUNK_X*16 + x, CHUNK_Z*16 + z);
+		Climate.ClimateData climate = biomes.climate.getPoint(geo[0], geo[1]);
+		return EarthBiomeProvider.rules(biomes.soil.getPoint(geo[0], geo[1]), climate.temp, climate.precip);
+	}
+
+	@Test
+	public void differentBiomesAlongTheEdges() {
+		//otherwise the tests above can't tell the blocks apart
+		int alongX = 0, alongZ = 0;
+		for(int i=1; i<16; i++) {
+			if(expected(i, 0) != expected(i - 1, 0))
+				alongX++;
+			if(expected(0, i) != expected(0, i - 1))
+				alongZ++;
+		}
+		assertTrue(alongX > 4);
+		assertTrue(alongZ > 4);
+		assertNotSame(expected(15, 0), expected(0, 15));
+	}
+}
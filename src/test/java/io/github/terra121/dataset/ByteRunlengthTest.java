@@ -0,0 +1,124 @@
+package io.github.terra121.dataset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.github.terra121.TerraConfig;
+import io.github.terra121.TerraMod;
+
+//ground.dat and bundled.dat are the same few runs in the ground format, bundled.dat.runs is what the build step compiles it into
+public class ByteRunlengthTest {
+	private static final String BUNDLED = "io/github/terra121/dataset/bundled.dat";
+	private static final String PLAIN = "io/github/terra121/dataset/ground.dat";
+
+	//state and length of every run in those files
+	private static final int[][] RUNS = {{0, 1000}, {1, 24}, {2, 5000}, {0, 7}, {3, 300}, {1, 4096*3}};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File datasets;
+	private String cacheDirectory;
+
+	@BeforeClass
+	public static void logger() {
+		if(TerraMod.LOGGER == null)
+			TerraMod.LOGGER = LogManager.getLogger();
+	}
+
+	@Before
+	public void cache() {
+		cacheDirectory = TerraConfig.cacheDirectory;
+		TerraConfig.cacheDirectory = folder.getRoot().getPath();
+		datasets = new File(folder.getRoot(), "datasets");
+	}
+
+	@After
+	public void restore() {
+		TerraConfig.cacheDirectory = cacheDirectory;
+	}
+
+	@Test
+	public void groundReadToTheEnd() throws IOException {
+		//a stream that never claims to have anything available and hands out odd sized pieces, like some jar entries
+		InputStream in = new FilterInputStream(getClass().getClassLoader().getResourceAsStream(PLAIN)) {
+			public int available() {
+				return 0;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 3));
+			}
+		};
+		assertRuns(WaterGround.parse(in));
+	}
+
+	@Test(expected = IOException.class)
+	public void groundCutInsideARun() throws IOException {
+		WaterGround.parse(new ByteArrayInputStream(new byte[] {0, 0, 1, 0, 0, 0}));
+	}
+
+	@Test
+	public void copiesBundledCompiledData() throws IOException {
+		ByteRunlength.Compiler never = in -> {
+			throw new AssertionError("compiled at runtime, the build already did");
+		};
+
+		assertRuns(ByteRunlength.compiled(BUNDLED, never));
+		assertArrayEquals(new String[] {"bundled.dat.runs"}, datasets.list()); //no temporary files left behind
+
+		//mapped straight from the copy from now on
+		assertRuns(ByteRunlength.compiled(BUNDLED, never));
+	}
+
+	@Test
+	public void compilesWithoutBundledData() throws IOException {
+		AtomicInteger compiled = new AtomicInteger();
+		ByteRunlength.Compiler compile = in -> {
+			compiled.incrementAndGet();
+			return WaterGround.parse(in);
+		};
+
+		assertRuns(ByteRunlength.compiled(PLAIN, compile));
+		assertRuns(ByteRunlength.compiled(PLAIN, compile));
+		assertEquals(1, compiled.get());
+		assertArrayEquals(new String[] {"ground.dat.runs"}, datasets.list());
+	}
+
+	@Test
+	public void replacesStaleCopy() throws IOException {
+		//a copy compiled from some other version of the resource
+		File old = folder.newFile("old.dat");
+		Files.write(old.toPath(), new byte[] {0, 0, 0, 5});
+		ByteRunlength.compile(old, new File(datasets, "bundled.dat.runs"), WaterGround::parse);
+
+		assertRuns(ByteRunlength.compiled(BUNDLED, in -> {
+			throw new AssertionError("compiled at runtime, the build already did");
+		}));
+	}
+
+	private static void assertRuns(ByteRunlength data) {
+		int idx = 0;
+		for(int[] run: RUNS)
+			for(int i=0; i<run[1]; i++, idx++)
+				assertEquals("cell " + idx, run[0], data.get(idx));
+		assertEquals(idx, data.size());
+		assertEquals(RUNS.length, data.runs());
+	}
+}
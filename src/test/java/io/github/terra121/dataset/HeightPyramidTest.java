@@ -0,0 +1,43 @@
+package io.github.terra121.dataset;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import io.github.terra121.projection.GeographicProjection;
+
+public class HeightPyramidTest {
+
+	//meters per pixel of a zoom 0 terrarium tile at the equator
+	private static final double ZOOM0_PIXEL = GeographicProjection.EARTH_CIRCUMFERENCE/256;
+
+	//a world with blocks of the same size everywhere
+	private static HeightPyramid pyramid(double metersPerBlock) {
+		return new HeightPyramid(new GeographicProjection() {
+			@Override
+			public double[] tissot(double lon, double lat, double d) {
+				return new double[] {1/(metersPerBlock*metersPerBlock), 0};
+			}
+		}, 13, null);
+	}
+
+	@Test
+	public void pixelsNoSmallerThanABlock() {
+		double zoom10 = ZOOM0_PIXEL/1024;
+
+		assertEquals(10, pyramid(zoom10).zoom(0, 0));
+		assertEquals(9, pyramid(zoom10*1.01).zoom(0, 0)); //a zoom 10 pixel would be smaller than a block
+		assertEquals(10, pyramid(zoom10*0.99).zoom(0, 0));
+		assertEquals(13, pyramid(1).zoom(0, 0));
+		assertEquals(0, pyramid(ZOOM0_PIXEL*2).zoom(0, 0));
+	}
+
+	@Test
+	public void pixelsShrinkAwayFromTheEquator() {
+		double zoom10 = ZOOM0_PIXEL/1024;
+
+		//at 60 degrees pixels are half as wide, so blocks that fit a zoom 10 pixel at the equator only fit a zoom 9 one there
+		assertEquals(9, pyramid(zoom10*0.99).zoom(0, 60));
+		assertEquals(10, pyramid(zoom10*0.99/2).zoom(0, 60));
+	}
+}
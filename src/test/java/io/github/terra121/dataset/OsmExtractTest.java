@@ -0,0 +1,234 @@
+package io.github.terra121.dataset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.stream.JsonReader;
+
+import io.github.terra121.TerraMod;
+
+//fixture.osm.pbf is a few ways and relations around null island and around 0.15,0.15:
+//a road (10) running east over three regions, a building (11), a pond (12) over the corner of region 1,1,
+//a lake relation (20) with an outer (13) and inner (15) way and a hole over the corner of region 9,9,
+//a bus route (21) and an untagged footpath (17), which nothing classifies
+//the overpass_x_y.json files are what overpass answers for those regions
+public class OsmExtractTest {
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static File pbf;
+	private static File index;
+	private static OsmExtract extract;
+
+	@BeforeClass
+	public static void build() throws IOException {
+		if(TerraMod.LOGGER == null)
+			TerraMod.LOGGER = LogManager.getLogger();
+
+		pbf = folder.newFile("fixture.osm.pbf");
+		try(InputStream is = OsmExtractTest.class.getResourceAsStream("fixture.osm.pbf")) {
+			Files.copy(is, pbf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		index = folder.newFile("fixture.index");
+		OsmExtract.build(pbf, index);
+		extract = new OsmExtract(index);
+	}
+
+	@Test
+	public void sameAsOverpass() throws IOException {
+		for(int[] region: new int[][] {{0, 0}, {1, 0}, {1, 1}, {9, 9}})
+			assertEquals("region " + region[0] + " " + region[1], overpass(region[0], region[1]), read(region[0], region[1]));
+	}
+
+	@Test
+	public void emptyRegion() {
+		assertEquals(new ArrayList<String>(), read(5, 5));
+	}
+
+	@Test
+	public void decodesNodes() throws IOException {
+		//covers zlib and raw blobs, dense and plain nodes, delta coded ids (some going down) and a block with its own granularity and offsets
+		Map<Long, double[]> nodes = new HashMap<Long, double[]>();
+		List<Long> order = new ArrayList<Long>();
+		new PbfReader(pbf).read(new PbfReader.Handler() {
+			public void node(long id, double lon, double lat) {
+				nodes.put(id, new double[] {lon, lat});
+				order.add(id);
+			}
+		}, true, false, false);
+
+		assertEquals(Arrays.asList(5000000001L, 5000000003L, 5000000002L, 300L), order.subList(0, 4));
+		assertEquals(11 + 12 + 2 + 1, nodes.size()); //both dense groups, the dense nodes of the raw block and its plain one
+		assertArrayEquals(new double[] {0.010, 0.006}, nodes.get(5000000003L), 1e-9);
+		assertArrayEquals(new double[] {0.162, 0.14}, nodes.get(7000000004L), 1e-9);
+		assertArrayEquals(new double[] {0.040, 0.009}, nodes.get(5000000010L), 1e-9);
+		assertArrayEquals(new double[] {0.022, 0.022}, nodes.get(1000003L), 1e-9);
+		assertArrayEquals(new double[] {0.5, 0.5}, nodes.get(299L), 1e-9);
+	}
+
+	@Test
+	public void decodesWaysAndRelations() throws IOException {
+		Map<Long, long[]> refs = new TreeMap<Long, long[]>();
+		Map<Long, Map<String, String>> tags = new HashMap<Long, Map<String, String>>();
+		Map<Long, long[]> members = new TreeMap<Long, long[]>();
+		new PbfReader(pbf).read(new PbfReader.Handler() {
+			public void way(long id, Map<String, String> t, long[] r, int numRefs) {
+				refs.put(id, Arrays.copyOf(r, numRefs));
+				tags.put(id, new HashMap<String, String>(t));
+			}
+
+			public void relation(long id, Map<String, String> t, long[] m, int numMembers) {
+				members.put(id, Arrays.copyOf(m, numMembers));
+				tags.put(id, new HashMap<String, String>(t));
+			}
+		}, false, true, true);
+
+		assertEquals(Arrays.asList(10L, 11L, 12L, 13L, 15L, 17L), new ArrayList<Long>(refs.keySet()));
+		assertArrayEquals(new long[] {5000000001L, 5000000003L, 5000000002L, 300L, 5000000010L}, refs.get(10L));
+		assertArrayEquals(new long[] {1, 2, 3, 4, 1}, refs.get(11L));
+		assertEquals("Main Street", tags.get(10L).get("name"));
+		assertEquals("2", tags.get(10L).get("lanes"));
+		assertTrue(tags.get(13L).isEmpty());
+
+		//node members are left out
+		assertArrayEquals(new long[] {13, 15}, members.get(20L));
+		assertArrayEquals(new long[] {10}, members.get(21L));
+		assertEquals("multipolygon", tags.get(20L).get("type"));
+	}
+
+	@Test
+	public void indexLayout() throws IOException {
+		try(RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+			assertEquals(0x4F313231, raf.readInt());
+			assertEquals(1, raf.readInt());
+			assertEquals(pbf.length(), raf.readLong());
+			assertEquals(pbf.lastModified(), raf.readLong());
+			int count = raf.readInt();
+			assertEquals(28, raf.getFilePointer());
+
+			//entries are sorted by region and their data follows them back to back
+			long previous = Long.MIN_VALUE, offset = 28 + count*20L;
+			for(int i=0; i<count; i++) {
+				raf.seek(28 + i*20L);
+				long key = raf.readLong();
+				assertTrue(key > previous);
+				assertEquals(offset, raf.readLong());
+				offset += raf.readInt();
+				previous = key;
+			}
+			assertEquals(raf.length(), offset);
+		}
+	}
+
+	@Test
+	public void spoolCleanedUp() {
+		String[] files = folder.getRoot().list();
+		Arrays.sort(files);
+		assertArrayEquals(new String[] {"fixture.index", "fixture.osm.pbf"}, files);
+	}
+
+	@Test
+	public void waterAreas() {
+		//the pond only covers the corner of 1,1, the lake those of 8,8 9,8 and 8,9 but not 9,9 which is in its hole
+		Map<String, List<Long>> ground = new TreeMap<String, List<Long>>();
+		for(int x=-1; x<=10; x++)
+			for(int y=-1; y<=10; y++) {
+				List<Long> areas = new ArrayList<Long>();
+				extract.read(new OpenStreetMaps.Coord(x, y), elem -> {
+					if(elem.type == OpenStreetMaps.EType.area)
+						areas.add(elem.id);
+				});
+				if(!areas.isEmpty())
+					ground.put(x + "," + y, areas);
+			}
+
+		Map<String, List<Long>> expected = new TreeMap<String, List<Long>>();
+		expected.put("1,1", Arrays.asList(2400000012L));
+		expected.put("8,8", Arrays.asList(3600000020L));
+		expected.put("9,8", Arrays.asList(3600000020L));
+		expected.put("8,9", Arrays.asList(3600000020L));
+		assertEquals(expected, ground);
+	}
+
+	private static List<String> read(int x, int y) {
+		List<String> elements = new ArrayList<String>();
+		extract.read(new OpenStreetMaps.Coord(x, y), elem -> elements.add(describe(elem)));
+		return elements;
+	}
+
+	//what classification gets to see from overpass, the extract leaves out what it has no use for:
+	//tags it never looks at, ways without any it does look at that no relation needs, and relations that aren't water or buildings
+	private static List<String> overpass(int x, int y) throws IOException {
+		List<String> elements = new ArrayList<String>();
+		List<Long> members = new ArrayList<Long>(Arrays.asList(13L, 15L));
+
+		try(JsonReader reader = new JsonReader(new InputStreamReader(OsmExtractTest.class.getResourceAsStream("overpass_" + x + "_" + y + ".json"), StandardCharsets.UTF_8))) {
+			OpenStreetMaps.Element elem = new OpenStreetMaps.Element();
+			reader.beginObject();
+			while(reader.hasNext()) {
+				if(!reader.nextName().equals("elements")) {
+					reader.skipValue();
+					continue;
+				}
+
+				reader.beginArray();
+				while(reader.hasNext()) {
+					elem.read(reader);
+					boolean used = elem.type != OpenStreetMaps.EType.way && elem.type != OpenStreetMaps.EType.relation;
+					if(elem.type == OpenStreetMaps.EType.way)
+						used = !filtered(elem.tags).isEmpty() || members.contains(elem.id);
+					if(elem.type == OpenStreetMaps.EType.relation)
+						used = OpenStreetMaps.isWater(elem.tags) || elem.tags.get("building") != null;
+
+					if(used)
+						elements.add(describe(elem));
+				}
+				reader.endArray();
+			}
+			reader.endObject();
+		}
+		return elements;
+	}
+
+	private static String describe(OpenStreetMaps.Element elem) {
+		StringBuilder s = new StringBuilder(elem.type + " " + elem.id);
+		if(elem.type == OpenStreetMaps.EType.count)
+			return s.toString();
+
+		s.append(" ").append(filtered(elem.tags));
+		for(int i=0; i<elem.geometryLength; i+=2)
+			s.append(String.format(" %.7f,%.7f", elem.geometry[i], elem.geometry[i+1]));
+		for(int i=0; i<elem.numMembers; i++)
+			s.append(" member ").append(elem.members[i]);
+		return s.toString();
+	}
+
+	private static Map<String, String> filtered(Map<String, String> tags) {
+		Map<String, String> filtered = new TreeMap<String, String>(tags);
+		filtered.keySet().retainAll(Arrays.asList("highway", "waterway", "natural", "water", "building", "tunnel", "bridge", "lanes", "layers"));
+		return filtered;
+	}
+}
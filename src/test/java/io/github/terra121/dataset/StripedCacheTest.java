@@ -0,0 +1,101 @@
+package io.github.terra121.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StripedCacheTest {
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		StripedCache<String, String> cache = new StripedCache<String, String>(1, 3, v -> 1);
+		cache.put("a", "a");
+		cache.put("b", "b");
+		cache.put("c", "c");
+
+		cache.get("a"); //b is the oldest now
+		cache.put("d", "d");
+
+		assertTrue(cache.containsKey("a"));
+		assertFalse(cache.containsKey("b"));
+		assertTrue(cache.containsKey("c"));
+		assertTrue(cache.containsKey("d"));
+		assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void containsKeyDoesNotTouch() {
+		StripedCache<String, String> cache = new StripedCache<String, String>(1, 2, v -> 1);
+		cache.put("a", "a");
+		cache.put("b", "b");
+
+		cache.containsKey("a");
+		cache.put("c", "c");
+
+		assertFalse(cache.containsKey("a"));
+		assertTrue(cache.containsKey("b"));
+	}
+
+	@Test
+	public void evictsByWeight() {
+		List<String> evicted = new ArrayList<String>();
+		StripedCache<String, byte[]> cache = new StripedCache<String, byte[]>(1, 100, v -> v.length, (k, v) -> evicted.add(k));
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[40]);
+		cache.put("c", new byte[10]);
+		assertEquals(90, cache.weight());
+		assertTrue(evicted.isEmpty());
+
+		//needs both a and b gone
+		cache.put("d", new byte[80]);
+		assertEquals(2, evicted.size());
+		assertEquals("a", evicted.get(0));
+		assertEquals("b", evicted.get(1));
+		assertEquals(90, cache.weight());
+
+		//replacing a value only counts the new one
+		cache.put("c", new byte[20]);
+		assertEquals(100, cache.weight());
+		assertEquals(2, evicted.size());
+
+		assertEquals(80, cache.remove("d").length);
+		assertEquals(20, cache.weight());
+	}
+
+	@Test
+	public void keepsOversizedNewEntry() {
+		StripedCache<String, byte[]> cache = new StripedCache<String, byte[]>(1, 10, v -> v.length);
+		cache.put("a", new byte[5]);
+		cache.put("b", new byte[50]);
+
+		assertNull(cache.get("a"));
+		assertEquals(50, cache.get("b").length);
+	}
+
+	@Test
+	public void putIfAbsentKeepsOld() {
+		StripedCache<String, String> cache = new StripedCache<String, String>(4, 10, v -> 1);
+		assertNull(cache.putIfAbsent("a", "first"));
+		assertEquals("first", cache.putIfAbsent("a", "second"));
+		assertEquals("first", cache.get("a"));
+		assertEquals("first", cache.put("a", "third"));
+		assertEquals("third", cache.get("a"));
+	}
+
+	@Test
+	public void spreadsDiagonalTiles() {
+		//tile keys on a diagonal all have the same Long.hashCode, they still have to use every segment
+		//or the cache would only ever hold one segment's share of them
+		StripedCache<Long, Integer> cache = new StripedCache<Long, Integer>(16, 16*8, v -> 1);
+		for(int i=0; i<32; i++)
+			cache.put(((long)i << 32) | i, i);
+
+		assertEquals(32, cache.size());
+	}
+}
@@ -0,0 +1,169 @@
+package io.github.terra121.dataset;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+//the direct decoder has to give exactly what the ImageIO fallback gives for every filter
+public class TerrariumTest {
+	private static final int SIZE = Terrarium.SIZE;
+	private static final int MIXED = -1; //a different filter on every scanline
+
+	@Test
+	public void none() throws IOException {
+		check(0);
+	}
+
+	@Test
+	public void sub() throws IOException {
+		check(1);
+	}
+
+	@Test
+	public void up() throws IOException {
+		check(2);
+	}
+
+	@Test
+	public void average() throws IOException {
+		check(3);
+	}
+
+	@Test
+	public void paeth() throws IOException {
+		check(4);
+	}
+
+	@Test
+	public void mixed() throws IOException {
+		check(MIXED);
+	}
+
+	@Test
+	public void glitchesClampedTheSame() throws IOException {
+		//deep values are treated as glitches past zoom 10, both paths have to agree on that too
+		byte[] pixels = pixels(3, new Random(7));
+		for(int i=0; i<pixels.length; i+=3*17)
+			pixels[i] = 0;
+
+		byte[] png = png(pixels, false, 4, 1 << 16);
+		assertSame(png, 12);
+	}
+
+	private static void check(int filter) throws IOException {
+		for(boolean alpha: new boolean[] {false, true}) {
+			byte[] pixels = pixels(alpha ? 4 : 3, new Random(filter + 10));
+
+			assertSame(png(pixels, alpha, filter, 1 << 16), 5);
+			assertSame(png(pixels, alpha, filter, 1000), 5); //image data split over many IDAT chunks
+		}
+	}
+
+	private static void assertSame(byte[] png, int zoom) throws IOException {
+		Tile direct = new Tile.Ints(SIZE*SIZE);
+		Tile image = new Tile.Ints(SIZE*SIZE);
+		Terrarium.decode(png, zoom, direct);
+		Terrarium.decodeImage(png, zoom, image);
+
+		for(int i=0; i<SIZE*SIZE; i++)
+			assertEquals("pixel " + i, image.get(i), direct.get(i));
+	}
+
+	//smooth terrain with noise in the low bytes, so every filter actually has something to predict
+	private static byte[] pixels(int bpp, Random rand) {
+		byte[] pixels = new byte[SIZE*SIZE*bpp];
+		for(int y=0; y<SIZE; y++)
+			for(int x=0; x<SIZE; x++) {
+				int h = 8388608 + (x*y + x*40 - y*70)*64 + rand.nextInt(1 << 12);
+				int i = (y*SIZE + x)*bpp;
+				pixels[i] = (byte)(h >> 16);
+				pixels[i+1] = (byte)(h >> 8);
+				pixels[i+2] = (byte)h;
+				if(bpp == 4)
+					pixels[i+3] = (byte)(rand.nextBoolean() ? 255 : rand.nextInt(256));
+			}
+		return pixels;
+	}
+
+	//8 bit rgb(a) png with the given filter on each scanline, idat is the most image data per IDAT chunk
+	private static byte[] png(byte[] pixels, boolean alpha, int filter, int idat) throws IOException {
+		int bpp = alpha ? 4 : 3;
+		int stride = SIZE*bpp;
+
+		byte[] raw = new byte[SIZE*(stride + 1)];
+		for(int y=0; y<SIZE; y++) {
+			int type = filter == MIXED ? y%5 : filter;
+			int line = y*stride, out = y*(stride + 1);
+			raw[out] = (byte)type;
+
+			for(int i=0; i<stride; i++) {
+				int x = pixels[line + i]&0xff;
+				int a = i >= bpp ? pixels[line + i - bpp]&0xff : 0;
+				int b = y > 0 ? pixels[line - stride + i]&0xff : 0;
+				int c = i >= bpp && y > 0 ? pixels[line - stride + i - bpp]&0xff : 0;
+
+				int predicted = 0;
+				switch(type) {
+					case 1: predicted = a; break;
+					case 2: predicted = b; break;
+					case 3: predicted = (a + b) >> 1; break;
+					case 4:
+						int p = a + b - c;
+						int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+						predicted = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+						break;
+				}
+				raw[out + 1 + i] = (byte)(x - predicted);
+			}
+		}
+
+		Deflater deflater = new Deflater();
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		while(!deflater.finished())
+			compressed.write(buf, 0, deflater.deflate(buf));
+		deflater.end();
+		byte[] data = compressed.toByteArray();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(0x89504E470D0A1A0AL);
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream h = new DataOutputStream(header);
+		h.writeInt(SIZE);
+		h.writeInt(SIZE);
+		h.writeByte(8);
+		h.writeByte(alpha ? 6 : 2);
+		h.writeByte(0); //deflate
+		h.writeByte(0); //adaptive filtering
+		h.writeByte(0); //not interlaced
+		chunk(out, "IHDR", header.toByteArray(), 0, header.size());
+
+		for(int off=0; off<data.length; off+=idat)
+			chunk(out, "IDAT", data, off, Math.min(idat, data.length - off));
+		chunk(out, "IEND", data, 0, 0);
+		return bytes.toByteArray();
+	}
+
+	private static void chunk(DataOutputStream out, String type, byte[] data, int off, int length) throws IOException {
+		byte[] name = type.getBytes("US-ASCII");
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data, off, length);
+
+		out.writeInt(length);
+		out.write(name);
+		out.write(data, off, length);
+		out.writeInt((int)crc.getValue());
+	}
+}
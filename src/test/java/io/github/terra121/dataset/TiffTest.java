@@ -0,0 +1,305 @@
+package io.github.terra121.dataset;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.common.PackBits;
+import org.apache.commons.imaging.common.bytesource.ByteSourceArray;
+import org.apache.commons.imaging.common.mylzw.MyLzwCompressor;
+import org.apache.commons.imaging.formats.tiff.TiffImageParser;
+import org.junit.Test;
+
+//Tiff has to read tree cover tiles exactly like commons-imaging, which Trees used before it
+//the tiles are written here the way the ArcGIS exportImage endpoint lays them out (one 8 bit band, lzw strips)
+//along with the other layouts Tiff claims to handle
+public class TiffTest {
+	private static final int SIZE = 256;
+
+	private static final int NONE = 1;
+	private static final int LZW = 5;
+	private static final int DEFLATE = 8;
+	private static final int PACKBITS = 32773;
+
+	private static final int BLACK_IS_ZERO = 1;
+	private static final int WHITE_IS_ZERO = 0;
+	private static final int RGB = 2;
+	private static final int PALETTE = 3;
+
+	@Test
+	public void treeCover() throws Exception {
+		//what the endpoint sends: cover percentages in lzw strips, with and without the predictor
+		byte[] cover = cover(new Random(1));
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(LZW).strips(8).write());
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(LZW).predictor().strips(8).write());
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(LZW).predictor().strips(SIZE).order(ByteOrder.LITTLE_ENDIAN).write());
+	}
+
+	@Test
+	public void compressions() throws Exception {
+		byte[] cover = cover(new Random(2));
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(NONE).strips(32).write());
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(PACKBITS).strips(16).write());
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(LZW).strips(SIZE).write());
+	}
+
+	@Test
+	public void deflate() throws Exception {
+		//commons-imaging can't read deflate, so those have to come out the same as the uncompressed tile does there
+		byte[] cover = cover(new Random(3));
+		BufferedImage reference = reference(new Writer(cover, 1, BLACK_IS_ZERO).compression(NONE).strips(SIZE).write());
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(DEFLATE).strips(16).write(), reference);
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(DEFLATE).predictor().tiles(64, 32).write(), reference);
+	}
+
+	@Test
+	public void tiles() throws Exception {
+		//80 doesn't divide 256, so the last column and row of tiles hang off the image
+		byte[] cover = cover(new Random(4));
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(LZW).tiles(80, 80).write());
+		assertSame(new Writer(cover, 1, BLACK_IS_ZERO).compression(NONE).tiles(64, 32).write());
+	}
+
+	@Test
+	public void colors() throws Exception {
+		Random rand = new Random(5);
+
+		byte[] gray = cover(rand);
+		assertSame(new Writer(gray, 1, WHITE_IS_ZERO).compression(LZW).strips(8).write());
+
+		byte[] rgb = new byte[SIZE*SIZE*3];
+		rand.nextBytes(rgb);
+		assertSame(new Writer(rgb, 3, RGB).compression(LZW).strips(8).write());
+		assertSame(new Writer(rgb, 3, RGB).compression(LZW).predictor().strips(8).order(ByteOrder.LITTLE_ENDIAN).write());
+
+		long[] map = new long[3*256];
+		for(int i=0; i<map.length; i++)
+			map[i] = rand.nextInt(1 << 16);
+		assertSame(new Writer(gray, 1, PALETTE).palette(map).compression(PACKBITS).strips(8).write());
+	}
+
+	private static void assertSame(byte[] tiff) throws Exception {
+		assertSame(tiff, reference(tiff));
+	}
+
+	//every pixel as commons-imaging gives it, and the band the same way Trees used to take it from there
+	private static void assertSame(byte[] tiff, BufferedImage reference) throws IOException {
+		Tiff img = Tiff.read(tiff);
+		assertEquals(SIZE, img.width);
+		assertEquals(SIZE, img.height);
+
+		Tile band = new Tile.Ints(SIZE*SIZE);
+		img.band(band);
+
+		int[] rgb = reference.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+		for(int i=0; i<rgb.length; i++) {
+			assertEquals("pixel " + i, Integer.toHexString(rgb[i]), Integer.toHexString(img.argb(i)));
+			assertEquals("band " + i, rgb[i]&0xff, band.get(i));
+		}
+	}
+
+	private static BufferedImage reference(byte[] tiff) throws ImageReadException, IOException {
+		return new TiffImageParser().getBufferedImage(new ByteSourceArray(tiff), new HashMap<String, Object>());
+	}
+
+	//patchy forest cover percentages, with a few no data pixels
+	private static byte[] cover(Random rand) {
+		byte[] cover = new byte[SIZE*SIZE];
+		for(int y=0; y<SIZE; y++)
+			for(int x=0; x<SIZE; x++) {
+				double v = 50 + 30*Math.sin(x/17.0) + 20*Math.cos(y/23.0) + rand.nextInt(9) - 4;
+				cover[y*SIZE + x] = (byte)Math.max(0, Math.min(100, (int)v));
+			}
+		for(int i=0; i<40; i++)
+			cover[rand.nextInt(cover.length)] = (byte)255;
+		return cover;
+	}
+
+	//baseline tiff with a single image
+	private static class Writer {
+		private final byte[] pixels;
+		private final int samples;
+		private final int photometric;
+		private int compression = NONE;
+		private boolean predictor;
+		private int blockWidth = SIZE, blockHeight = SIZE;
+		private boolean tiled;
+		private long[] palette;
+		private ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+		Writer(byte[] pixels, int samples, int photometric) {
+			this.pixels = pixels;
+			this.samples = samples;
+			this.photometric = photometric;
+		}
+
+		Writer compression(int compression) {
+			this.compression = compression;
+			return this;
+		}
+
+		Writer predictor() {
+			predictor = true;
+			return this;
+		}
+
+		Writer strips(int rows) {
+			blockHeight = rows;
+			return this;
+		}
+
+		Writer tiles(int width, int height) {
+			tiled = true;
+			blockWidth = width;
+			blockHeight = height;
+			return this;
+		}
+
+		Writer palette(long[] map) {
+			palette = map;
+			return this;
+		}
+
+		Writer order(ByteOrder order) {
+			this.order = order;
+			return this;
+		}
+
+		byte[] write() throws IOException {
+			int across = (SIZE + blockWidth - 1)/blockWidth;
+			int down = (SIZE + blockHeight - 1)/blockHeight;
+			int blockRow = blockWidth*samples;
+
+			//blocks first, right after the header
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			long[] offsets = new long[across*down];
+			long[] counts = new long[across*down];
+			for(int by=0; by<down; by++)
+				for(int bx=0; bx<across; bx++) {
+					//strips stop at the bottom of the image, tiles are always whole
+					int rows = tiled ? blockHeight : Math.min(blockHeight, SIZE - by*blockHeight);
+					byte[] block = new byte[rows*blockRow];
+					for(int row=0; row<rows; row++) {
+						int y = by*blockHeight + row, x = bx*blockWidth;
+						if(y < SIZE)
+							System.arraycopy(pixels, (y*SIZE + x)*samples, block, row*blockRow, Math.min(blockWidth, SIZE - x)*samples);
+					}
+
+					if(predictor)
+						for(int row=0; row<block.length; row+=blockRow)
+							for(int i=row+blockRow-1; i>=row+samples; i--)
+								block[i] -= block[i-samples];
+
+					byte[] packed = compress(block);
+					offsets[by*across + bx] = 8 + data.size();
+					counts[by*across + bx] = packed.length;
+					data.write(packed);
+					if((data.size()&1) != 0)
+						data.write(0); //word aligned
+				}
+
+			Map<Integer, long[]> shorts = new TreeMap<Integer, long[]>();
+			Map<Integer, long[]> longs = new TreeMap<Integer, long[]>();
+			longs.put(256, new long[] {SIZE});
+			longs.put(257, new long[] {SIZE});
+			long[] bits = new long[samples];
+			for(int i=0; i<samples; i++)
+				bits[i] = 8;
+			shorts.put(258, bits);
+			shorts.put(259, new long[] {compression});
+			shorts.put(262, new long[] {photometric});
+			shorts.put(277, new long[] {samples});
+			shorts.put(284, new long[] {1});
+			if(predictor)
+				shorts.put(317, new long[] {2});
+			if(palette != null)
+				shorts.put(320, palette);
+			if(tiled) {
+				shorts.put(322, new long[] {blockWidth});
+				shorts.put(323, new long[] {blockHeight});
+				longs.put(324, offsets);
+				longs.put(325, counts);
+			} else {
+				longs.put(273, offsets);
+				longs.put(278, new long[] {blockHeight});
+				longs.put(279, counts);
+			}
+
+			TreeMap<Integer, long[]> tags = new TreeMap<Integer, long[]>();
+			tags.putAll(shorts);
+			tags.putAll(longs);
+
+			int ifd = 8 + data.size();
+			int extra = ifd + 2 + 12*tags.size() + 4; //values that don't fit in an entry go after the directory
+			int length = extra;
+			for(Map.Entry<Integer, long[]> tag: tags.entrySet()) {
+				int size = tag.getValue().length*(shorts.containsKey(tag.getKey()) ? 2 : 4);
+				if(size > 4)
+					length += size;
+			}
+
+			ByteBuffer out = ByteBuffer.allocate(length).order(order);
+			out.put((byte)(order == ByteOrder.BIG_ENDIAN ? 'M' : 'I'));
+			out.put((byte)(order == ByteOrder.BIG_ENDIAN ? 'M' : 'I'));
+			out.putShort((short)42);
+			out.putInt(ifd);
+			out.put(data.toByteArray());
+
+			out.putShort((short)tags.size());
+			for(Map.Entry<Integer, long[]> tag: tags.entrySet()) {
+				boolean isShort = shorts.containsKey(tag.getKey());
+				long[] values = tag.getValue();
+				out.putShort((short)(int)tag.getKey());
+				out.putShort((short)(isShort ? 3 : 4));
+				out.putInt(values.length);
+
+				int at = out.position();
+				if(values.length*(isShort ? 2 : 4) > 4) {
+					out.putInt(extra);
+					at = extra;
+					extra += values.length*(isShort ? 2 : 4);
+				} else out.putInt(0);
+
+				for(long v: values) {
+					if(isShort)
+						out.putShort(at, (short)v);
+					else out.putInt(at, (int)v);
+					at += isShort ? 2 : 4;
+				}
+			}
+			out.putInt(0); //no more directories
+			return out.array();
+		}
+
+		private byte[] compress(byte[] block) throws IOException {
+			switch(compression) {
+				case LZW:
+					return new MyLzwCompressor(8, ByteOrder.BIG_ENDIAN, true).compress(block);
+				case PACKBITS:
+					return new PackBits().compress(block);
+				case DEFLATE:
+					Deflater deflater = new Deflater();
+					deflater.setInput(block);
+					deflater.finish();
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					byte[] buf = new byte[8192];
+					while(!deflater.finished())
+						out.write(buf, 0, deflater.deflate(buf));
+					deflater.end();
+					return out.toByteArray();
+				default:
+					return block;
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package io.github.terra121.dataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import io.github.terra121.TerraMod;
+import io.github.terra121.projection.GeographicProjection;
+
+public class TiledDatasetTest {
+
+	@BeforeClass
+	public static void logger() {
+		if(TerraMod.LOGGER == null)
+			TerraMod.LOGGER = LogManager.getLogger();
+	}
+
+	//4x4 tiles filled with 7, the first few requests for each fail
+	private static class Failing extends TiledDataset {
+		ConcurrentHashMap<String, Integer> requests = new ConcurrentHashMap<String, Integer>();
+		int failures;
+		int retries;
+
+		Failing(int failures, int retries) {
+			super(4, 4, 16, new GeographicProjection(), 1, 1);
+			this.failures = failures;
+			this.retries = retries;
+		}
+
+		protected Tile request(Coord tile) {
+			if(requests.merge(tile.toString(), 1, Integer::sum) <= failures)
+				return null;
+
+			Tile out = newTile();
+			for(int i=0; i<16; i++)
+				out.set(i, 7);
+			return out;
+		}
+
+		protected int retries() {
+			return retries;
+		}
+
+		protected double dataToDouble(int data) {
+			return data;
+		}
+
+		//the tile the tests read from, the others only get prefetched
+		int requests() {
+			return requests.getOrDefault("(1, 1)", 0);
+		}
+	}
+
+	@Test
+	public void blankWhileBackingOff() throws InterruptedException {
+		Failing data = new Failing(1, 2);
+
+		//no waiting on the back off here, the tile just reads as 0 meanwhile
+		long start = System.nanoTime();
+		assertEquals(0, data.getOfficialHeight(5, 5), 0);
+		assertEquals(0, data.getOfficialHeight(6, 5), 0);
+		assertTrue(System.nanoTime() - start < 400_000_000L);
+		assertEquals(1, data.requests());
+
+		//and it isn't cached, the retry gets the real thing
+		assertTrue(waitFor(() -> data.getOfficialHeight(5, 5) == 7));
+		assertEquals(2, data.requests());
+	}
+
+	@Test
+	public void staysBlankAfterGivingUp() throws InterruptedException {
+		Failing data = new Failing(Integer.MAX_VALUE, 1);
+
+		assertEquals(0, data.getOfficialHeight(5, 5), 0);
+		assertTrue(waitFor(() -> data.requests() == 2));
+
+		Thread.sleep(100);
+		assertEquals(0, data.getOfficialHeight(5, 5), 0);
+		assertEquals(2, data.requests());
+	}
+
+	private interface Condition {
+		boolean met();
+	}
+
+	private static boolean waitFor(Condition condition) throws InterruptedException {
+		for(int i=0; i<100; i++) {
+			if(condition.met())
+				return true;
+			Thread.sleep(50);
+		}
+		return false;
+	}
+}